@@ -4,9 +4,6 @@
  */
 package farearth.landsat;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Application Process Identifier
  *
@@ -55,13 +52,16 @@ public enum APID {
     OliPxCirrus(779),
     OliPxDark(780);
 
-    private static final Map<Integer, APID> APID_MAP;
+    /**
+     * The number of APID numbers, which are 11 bits.
+     */
+    public static final int COUNT = 2048;
+    private static final APID[] BY_VALUE = new APID[COUNT]; // [APID number] = APID, null if unknown
     private final int _value;
 
     static {
-        APID_MAP = new HashMap<>();
         for (APID val : APID.values()) {
-            APID_MAP.put(val._value, val);
+            BY_VALUE[val._value] = val;
         }
     }
 
@@ -74,7 +74,7 @@ public enum APID {
     }
 
     public static APID forValue(int value) {
-        return APID_MAP.get(value);
+        return value >= 0 && value < COUNT ? BY_VALUE[value] : null;
     }
 
 }
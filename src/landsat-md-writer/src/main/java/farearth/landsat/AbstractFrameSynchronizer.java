@@ -4,7 +4,8 @@
  */
 package farearth.landsat;
 
-import farearth.landsat.util.ByteBufferUtils;
+import farearth.landsat.util.AsmScanner;
+import farearth.landsat.util.CarryOverBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -18,14 +19,14 @@ public abstract class AbstractFrameSynchronizer implements FrameSynchronizer {
     private final int asm;
     private final int contentSize;
     private final int searchSize;
-    private final byte[] asmBytes;
-    private ByteBuffer cache;
+    private final CarryOverBuffer carry;
 
     public AbstractFrameSynchronizer(int asm, int contentSize) {
         this.asm = asm;
         this.contentSize = contentSize;
         searchSize = 2 * ASM_SIZE + contentSize; // only frames between two ASMs are valid
-        asmBytes = ByteBuffer.allocate(ASM_SIZE).putInt(asm).array();
+        // processFrames() can leave a frame and its trailing ASM unconsumed
+        carry = new CarryOverBuffer(searchSize + ASM_SIZE);
     }
 
     protected abstract void processFrame(ByteBuffer buffer) throws IOException;
@@ -40,14 +41,22 @@ public abstract class AbstractFrameSynchronizer implements FrameSynchronizer {
 
     @Override
     public void process(ByteBuffer buffer) throws IOException {
-        if (cache != null) {
-            buffer = ByteBufferUtils.chain(cache, buffer);
+        consume(buffer);
+        carry.keep(buffer);
+    }
+
+    @Override
+    public void processWindow(ByteBuffer buffer) throws IOException {
+        consume(buffer);
+    }
+
+    private void consume(ByteBuffer buffer) throws IOException {
+        if (!carry.isEmpty()) {
+            processFrames(carry.stitch(buffer));
+            carry.release(buffer);
         }
-        processFrames(buffer);
-        if (buffer.remaining() > 0) {
-            cache = buffer; // buffer.duplicate(); no need to duplicate
-        } else {
-            cache = null;
+        if (carry.isEmpty()) {
+            processFrames(buffer);
         }
     }
 
@@ -84,23 +93,16 @@ public abstract class AbstractFrameSynchronizer implements FrameSynchronizer {
         return buffer.getInt() == asm;
     }
 
-    // this approach should be faster than Landsat8FrameSynchronizer.scanToASM(...)
     private boolean scanToASM(ByteBuffer buffer) {
-        while (buffer.remaining() >= searchSize) {
-            // if first byte matches
-            if (asmBytes[0] == buffer.get()) {
-                int position = buffer.position();
-                // check if other 3 bytes match
-                if (asmBytes[1] == buffer.get()
-                        && asmBytes[2] == buffer.get()
-                        && asmBytes[3] == buffer.get()) {
-                    return true;
-                }
-                // else reset position to after first byte
-                buffer.position(position);
-            }
+        // an ASM is only useful if a complete frame and the next ASM follow it
+        int end = buffer.limit() - searchSize + 1;
+        int index = AsmScanner.indexOf(buffer, asm, buffer.position(), end);
+        if (index < 0) {
+            buffer.position(Math.max(buffer.position(), end));
+            return false;
         }
-        return false;
+        buffer.position(index + ASM_SIZE);
+        return true;
     }
 
     @Override
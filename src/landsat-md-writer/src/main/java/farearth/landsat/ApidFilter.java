@@ -15,6 +15,36 @@ public interface ApidFilter {
 
     boolean pass(APID apid);
 
+    /**
+     * A filter compiled into one bit per APID number, for the per packet
+     * path.
+     */
+    public static class Mask implements ApidFilter {
+
+        private final long[] _bits = new long[APID.COUNT / Long.SIZE];
+
+        public Mask(ApidFilter filter) {
+            for (APID apid : APID.values()) {
+                if (filter.pass(apid)) {
+                    _bits[apid.getValue() >>> 6] |= 1L << apid.getValue();
+                }
+            }
+        }
+
+        @Override
+        public boolean pass(APID apid) {
+            return pass(apid.getValue());
+        }
+
+        /**
+         * @param apidNumber 0 to 2047
+         * @return
+         */
+        public boolean pass(int apidNumber) {
+            return (_bits[apidNumber >>> 6] & (1L << apidNumber)) != 0;
+        }
+    }
+
     public static class All implements ApidFilter {
 
         @Override
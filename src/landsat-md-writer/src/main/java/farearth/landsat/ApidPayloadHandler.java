@@ -15,6 +15,18 @@ public interface ApidPayloadHandler {
 
     void payload(APID apid, Slice e) throws IOException;
 
+    /**
+     * Called before the packet that breaks the sequence count of its APID,
+     * i.e. packets of the APID were lost in between.
+     *
+     * @param apid
+     * @param lastCount the sequence count of the last packet of the APID
+     * @param nextCount the sequence count of the packet that follows
+     * @throws IOException
+     */
+    default void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+    }
+
     void close() throws IOException;
 
     void dataLost();
@@ -0,0 +1,130 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the file data of every APID to the handlers whose filter passes it.
+ * The filters are compiled when a handler is added into a table from APID
+ * number to the handlers of that APID, so routing a packet is a single
+ * indexed lookup. File boundaries and data loss go to every handler. Packets
+ * and bytes are counted per APID.
+ *
+ * @author Chris
+ */
+public class ApidRouter implements FileHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApidRouter.class);
+    private static final FileHandler[] NONE = new FileHandler[0];
+
+    private final List<FileHandler> _handlers = new ArrayList<>();
+    private final List<ApidFilter> _filters = new ArrayList<>();
+    private final FileHandler[][] _routes = new FileHandler[APID.COUNT][]; // [APID number] = handlers, shared between APIDs with the same handlers
+    private final long[] _packets = new long[APID.COUNT];
+    private final long[] _bytes = new long[APID.COUNT];
+
+    public ApidRouter() {
+        Arrays.fill(_routes, NONE);
+    }
+
+    /**
+     * Adds a handler for the APIDs that pass the filter.
+     *
+     * @param handler
+     * @param filter
+     * @return this router
+     */
+    public ApidRouter add(FileHandler handler, ApidFilter filter) {
+        _handlers.add(handler);
+        _filters.add(filter);
+        Map<List<FileHandler>, FileHandler[]> routes = new HashMap<>();
+        for (APID apid : APID.values()) {
+            List<FileHandler> route = new ArrayList<>();
+            for (int i = 0; i < _handlers.size(); i++) {
+                if (_filters.get(i).pass(apid)) {
+                    route.add(_handlers.get(i));
+                }
+            }
+            _routes[apid.getValue()] = route.isEmpty() ? NONE
+                    : routes.computeIfAbsent(route, r -> r.toArray(new FileHandler[r.size()]));
+        }
+        return this;
+    }
+
+    public long getPacketCount(APID apid) {
+        return _packets[apid.getValue()];
+    }
+
+    public long getByteCount(APID apid) {
+        return _bytes[apid.getValue()];
+    }
+
+    @Override
+    public void startFile(String name) throws IOException {
+        for (FileHandler handler : _handlers) {
+            handler.startFile(name);
+        }
+    }
+
+    @Override
+    public void endFile(long filesize, int checksum) throws IOException {
+        for (FileHandler handler : _handlers) {
+            handler.endFile(filesize, checksum);
+        }
+    }
+
+    @Override
+    public void fileData(Slice data, APID apid, int length, long offset) throws IOException {
+        int value = apid.getValue();
+        _packets[value]++;
+        _bytes[value] += length;
+        FileHandler[] route = _routes[value];
+        if (route.length == 1) {
+            route[0].fileData(data, apid, length, offset);
+        } else {
+            for (FileHandler handler : route) {
+                handler.fileData(data.duplicate(), apid, length, offset);
+            }
+        }
+    }
+
+    @Override
+    public void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+        for (FileHandler handler : _routes[apid.getValue()]) {
+            handler.sequenceGap(apid, lastCount, nextCount);
+        }
+    }
+
+    @Override
+    public void dataLost() {
+        for (FileHandler handler : _handlers) {
+            handler.dataLost();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (LOG.isDebugEnabled()) {
+            for (APID apid : APID.values()) {
+                if (_packets[apid.getValue()] > 0) {
+                    LOG.debug("{}: {} packets, {} bytes", apid, _packets[apid.getValue()], _bytes[apid.getValue()]);
+                }
+            }
+        }
+        for (FileHandler handler : _handlers) {
+            handler.close();
+        }
+    }
+
+}
@@ -46,6 +46,10 @@ public class CaduHandler implements PayloadHandler {
     private long getDrops(long vcFrameCount) {
         long lastNumber = _lastCaduNumber;
         _lastCaduNumber = vcFrameCount;
+        return getDrops(lastNumber, vcFrameCount);
+    }
+
+    static long getDrops(long lastNumber, long vcFrameCount) {
         if (lastNumber < 0) {
             return 0;
         } else if (vcFrameCount < lastNumber) {
@@ -0,0 +1,55 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import java.io.IOException;
+
+/**
+ * The CFDP modular checksum: the sum, modulo 2^32, of the file as big-endian
+ * 32 bit words aligned to the start of the file, with the last word padded
+ * with zeros. Every byte adds to the sum according to its file offset alone,
+ * so the file data can be added a PDU at a time in any order.
+ *
+ * @author Chris
+ */
+final class CfdpChecksum {
+
+    private CfdpChecksum() {
+    }
+
+    /**
+     * Adds the remaining bytes of the slice, without moving its position.
+     *
+     * @param checksum the checksum so far
+     * @param data
+     * @param offset the file offset of the slice position
+     * @return the checksum including the data
+     * @throws IOException
+     */
+    public static int add(int checksum, Slice data, long offset) throws IOException {
+        int position = data.position();
+        int remaining = data.remaining();
+        // the bytes before the first word boundary
+        for (int phase = (int) (offset & 3); phase != 0 && remaining > 0; phase = (phase + 1) & 3) {
+            checksum += data.getUnsignedByte() << (24 - 8 * phase);
+            remaining--;
+        }
+        for (; remaining >= 8; remaining -= 8) {
+            long words = data.getBytesAsLong(8);
+            checksum += (int) (words >>> 32) + (int) words;
+        }
+        if (remaining >= 4) {
+            checksum += (int) data.getBytesAsLong(4);
+            remaining -= 4;
+        }
+        for (int shift = 24; remaining > 0; shift -= 8) {
+            checksum += data.getUnsignedByte() << shift;
+            remaining--;
+        }
+        data.position(position);
+        return checksum;
+    }
+}
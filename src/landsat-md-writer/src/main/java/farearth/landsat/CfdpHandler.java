@@ -14,6 +14,7 @@ import java.io.IOException;
 public class CfdpHandler implements ApidPayloadHandler {
 
     private final FileHandler _handler;
+    private final CfdpHeader _header = new CfdpHeader();
 
     public CfdpHandler(FileHandler handler) {
         _handler = handler;
@@ -21,27 +22,28 @@ public class CfdpHandler implements ApidPayloadHandler {
 
     @Override
     public void payload(APID apid, Slice packet) throws IOException {
-        CfdpHeader header = CfdpHeader.parse(packet);
-        if (header != null) { //stream closed or really bad data
-            switch (header.getType()) {
+        if (_header.parse(packet)) { //false if stream closed or really bad data
+            switch (_header.getType()) {
                 case Metadata:
-                    CfdpHeader.Metadata metadata = (CfdpHeader.Metadata) header;
-                    _handler.startFile(metadata.getDestinationFilename());
+                    _handler.startFile(_header.getDestinationFilename());
                     break;
                 case EOF:
-                    CfdpHeader.EOF eof = (CfdpHeader.EOF) header;
-                    _handler.endFile(eof.getFilesize(), eof.getChecksum());
+                    _handler.endFile(_header.getFilesize(), _header.getChecksum());
                     break;
                 case Data:
-                    CfdpHeader.Data data = (CfdpHeader.Data) header;
-                    _handler.fileData(packet, apid, data.getPayloadLength(), data.getOffset());
+                    _handler.fileData(packet, apid, _header.getPayloadLength(), _header.getOffset());
                     break;
                 default:
-                    throw new IOException("Unknown packet type: " + header.getType());
+                    throw new IOException("Unknown packet type: " + _header.getType());
             }
         }
     }
 
+    @Override
+    public void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+        _handler.sequenceGap(apid, lastCount, nextCount);
+    }
+
     @Override
     public void close() throws IOException {
         _handler.close();
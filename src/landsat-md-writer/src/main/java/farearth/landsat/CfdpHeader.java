@@ -6,21 +6,32 @@ package farearth.landsat;
 
 import farearth.landsat.util.Slice;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-abstract class CfdpHeader {
+/**
+ * A reusable view of a CFDP PDU. {@link #parse(Slice)} fills the fields of the
+ * PDU at the slice position in place, so parsing a packet does not allocate.
+ * The fixed header and the fields of each PDU type are read with single wide
+ * reads. Only the fields of the parsed PDU type are valid.
+ *
+ * @author Chris
+ */
+class CfdpHeader {
 
     private static final int FIXED_PART_LENGTH = 8;
-    private final PacketType _type;
-    private final SourceID _sourceID;
-
+    private static final int FILENAME_LENGTH = 7;
     private static final Logger LOG = LoggerFactory.getLogger(CfdpHeader.class);
 
-    public CfdpHeader(PacketType type, SourceID sourceID) {
-        _type = type;
-        _sourceID = sourceID;
-    }
+    private PacketType _type;
+    private SourceID _sourceID;
+    private long _offset;
+    private int _payloadLength;
+    private int _checksum;
+    private long _fileSize;
+    private long _filenameKey = -1; // the filename bytes, to only decode a new one
+    private String _filename;
 
     public PacketType getType() {
         return _type;
@@ -30,14 +41,58 @@ abstract class CfdpHeader {
         return _sourceID;
     }
 
-    public static CfdpHeader parse(Slice slice) throws IOException {
+    /**
+     * @return the destination filename of a {@link PacketType#Metadata} PDU
+     */
+    public String getDestinationFilename() {
+        return _filename;
+    }
 
-        if (slice.remaining() < FIXED_PART_LENGTH) {
-            return null;
-        }
+    /**
+     * @return the file offset of a {@link PacketType#Data} PDU
+     */
+    public long getOffset() {
+        return _offset;
+    }
 
-        int typeByte = slice.getUnsignedByte(); //1
+    /**
+     * @return the file data length of a {@link PacketType#Data} PDU
+     */
+    public int getPayloadLength() {
+        return _payloadLength;
+    }
 
+    /**
+     * @return the checksum of an {@link PacketType#EOF} PDU
+     */
+    public int getChecksum() {
+        return _checksum;
+    }
+
+    /**
+     * @return the file size of an {@link PacketType#EOF} PDU
+     */
+    public long getFilesize() {
+        return _fileSize;
+    }
+
+    /**
+     * Reads the PDU at the slice position, leaving the slice at the file data
+     * of a {@link PacketType#Data} PDU.
+     *
+     * @param slice
+     * @return false if the stream closed or the PDU is invalid or unsupported
+     * @throws IOException
+     */
+    public boolean parse(Slice slice) throws IOException {
+        if (slice.remaining() < FIXED_PART_LENGTH) {
+            return false;
+        }
+        long fixed = slice.getBytesAsLong(FIXED_PART_LENGTH);
+        int typeByte = (int) (fixed >>> 56) & 0xFF; //1
+        int length = (int) (fixed >>> 40) & 0xFFFF; //2 and 3
+        int reserved = (int) (fixed >>> 32) & 0xFF; //4
+        assert (reserved == 1);
         boolean isData;
         switch (typeByte) {
             case 0x04:
@@ -48,154 +103,92 @@ abstract class CfdpHeader {
                 break;
             default:
                 LOG.warn("Invalid PDU-byte: {}", typeByte);
-                return null;
-        }
-
-        int length = slice.getUnsignedByte() << 8 | slice.getUnsignedByte(); //2 and 3
-        int reserved = slice.getUnsignedByte(); //4
-        assert (reserved == 1);
-
-        SourceID sourceID;
-        int sourceIdValue = slice.getUnsignedByte(); //5
-        if (sourceIdValue == 0) {
-            sourceID = SourceID.OLI;
-        } else if (sourceIdValue == 1) {
-            sourceID = SourceID.TIRS;
-        } else if (sourceIdValue == 3) {
-            sourceID = SourceID.Ancillary;
-        } else {
-            LOG.warn("Invalid CFDP Source Entity ID: {}", sourceIdValue);
-            return null;
+                return false;
         }
-        slice.skip(3); //skip over the remaining 3 bytes:6,7,8
-
-        if (isData) {
-            return readDataPacket(sourceID, length, slice);
-        } else {
-            return readDirectivePacket(sourceID, length, slice);
+        int sourceIdValue = (int) (fixed >>> 24) & 0xFF; //5, the remaining 3 bytes (6,7,8) are ignored
+        switch (sourceIdValue) {
+            case 0:
+                _sourceID = SourceID.OLI;
+                break;
+            case 1:
+                _sourceID = SourceID.TIRS;
+                break;
+            case 3:
+                _sourceID = SourceID.Ancillary;
+                break;
+            default:
+                LOG.warn("Invalid CFDP Source Entity ID: {}", sourceIdValue);
+                return false;
         }
-
+        return isData ? parseData(length, slice) : parseDirective(length, slice);
     }
 
-    private static CfdpHeader readDirectivePacket(SourceID sourceID, int length, Slice data) throws IOException {
+    private boolean parseDirective(int length, Slice data) throws IOException {
         int fileDirectiveNumber = data.getUnsignedByte();
         if (fileDirectiveNumber < 0) {
-            return null;
+            return false;
         }
         switch (fileDirectiveNumber) {
             case 0x07:
-                return Metadata.parse(sourceID, length, data);
+                return parseMetadata(length, data);
             case 0x04:
-                return EOF.parse(sourceID, length, data);
+                return parseEof(data);
             default:
                 LOG.error("Unsupported CDFP file directive: {}", fileDirectiveNumber);
-                return null;
+                return false;
         }
-
     }
 
-    private static CfdpHeader readDataPacket(SourceID sourceID, int length, Slice data) throws IOException {
-        return Data.parse(sourceID, length, data);
-    }
-
-    public static enum PacketType {
-
-        Metadata, Data, EOF
-    }
-
-    public static enum SourceID {
-
-        OLI, TIRS, Ancillary
-    }
-
-    public static class Metadata extends CfdpHeader {
-
-        private final String _filename;
-
-        private Metadata(SourceID sourceID, String filename) {
-            super(PacketType.Metadata, sourceID);
-            _filename = filename;
-        }
-
-        public String getDestinationFilename() {
-            return _filename;
-        }
-
-        public static CfdpHeader parse(SourceID sourceID, int length, Slice data) throws IOException {
-            if (data.remaining() < 21) {
-                return null;
+    private boolean parseMetadata(int length, Slice data) throws IOException {
+        if (data.remaining() < 21) {
+            return false;
+        }
+        assert length == 0x16;
+        data.skip(14);
+        long key = data.getBytesAsLong(FILENAME_LENGTH);
+        if (key != _filenameKey) {
+            byte[] filename = new byte[FILENAME_LENGTH];
+            for (int i = 0; i < filename.length; i++) {
+                filename[i] = (byte) (key >>> (8 * (filename.length - 1 - i)));
             }
-            assert length == 0x16;
-            data.skip(14);
-            return new Metadata(sourceID, new String(data.getBytes(7), "US-ASCII"));
+            _filename = new String(filename, StandardCharsets.US_ASCII);
+            _filenameKey = key;
         }
+        _type = PacketType.Metadata;
+        return true;
     }
 
-    static class Data extends CfdpHeader {
-
-        private final long _offset;
-        private final int _payloadLength;
-
-        private Data(SourceID sourceID, long offset, int payloadLength) {
-            super(PacketType.Data, sourceID);
-            _payloadLength = payloadLength;
-            _offset = offset;
-        }
-
-        public long getOffset() {
-            return _offset;
-        }
-
-        public int getPayloadLength() {
-            return _payloadLength;
+    private boolean parseData(int length, Slice data) throws IOException {
+        if (data.remaining() < 4) {
+            return false;
         }
-
-        private static CfdpHeader parse(SourceID sourceID, int length, Slice data) {
-            if (data.remaining() < 4) {
-                return null;
-            }
-            long offset = data.getUnsignedByte() << 24
-                    | data.getUnsignedByte() << 16
-                    | data.getUnsignedByte() << 8
-                    | data.getUnsignedByte();
-            return new Data(sourceID, offset, length - 4);
-        }
-
+        _offset = data.getBytesAsLong(4);
+        _payloadLength = length - 4;
+        _type = PacketType.Data;
+        return true;
     }
 
-    static class EOF extends CfdpHeader {
-
-        private final int _checksum;
-        private final long _fileSize;
-
-        private EOF(SourceID sourceID, long fileSize, int checksum) {
-            super(PacketType.EOF, sourceID);
-            _checksum = checksum;
-            _fileSize = fileSize;
-        }
-
-        public int getChecksum() {
-            return _checksum;
-        }
+    private boolean parseEof(Slice data) throws IOException {
+        if (data.remaining() < 9) {
+            LOG.warn("Truncated CFDP EOF PDU: {} bytes", data.remaining());
+            return false;
+        }
+        data.skip(1);
+        long value = data.getBytesAsLong(8);
+        _checksum = (int) (value >>> 32);
+        _fileSize = value & 0xFFFFFFFFL;
+        _type = PacketType.EOF;
+        return true;
+    }
 
-        public long getFilesize() {
-            return _fileSize;
-        }
+    public static enum PacketType {
 
-        public static CfdpHeader parse(SourceID sourceID, int length, Slice data) {
-            data.skip(1);
+        Metadata, Data, EOF
+    }
 
-            int checksum = data.getUnsignedByte() << 24
-                    | data.getUnsignedByte() << 16
-                    | data.getUnsignedByte() << 8
-                    | data.getUnsignedByte();
+    public static enum SourceID {
 
-            long fileSize = data.getUnsignedByte() << 24;
-            fileSize = fileSize | data.getUnsignedByte() << 16;
-            fileSize = fileSize | data.getUnsignedByte() << 8;
-            fileSize = fileSize | data.getUnsignedByte();
-            return new EOF(sourceID, fileSize, checksum);
-        }
+        OLI, TIRS, Ancillary
     }
 
 }
@@ -4,12 +4,16 @@
  */
 package farearth.landsat;
 
+import farearth.landsat.util.ByteSizeFormatter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -17,7 +21,13 @@ import java.nio.file.StandardOpenOption;
  */
 public class ChannelProcessor {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelProcessor.class);
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int MIN_WINDOW_SIZE = 1024 * 1024;
+
     private final FrameSynchronizer _sync;
+    private int _windowSize = DEFAULT_WINDOW_SIZE;
+    private long _bytesRead;
 
     public ChannelProcessor(FrameSynchronizer sync) {
         _sync = sync;
@@ -30,9 +40,13 @@ public class ChannelProcessor {
     }
 
     public void readAll(ReadableByteChannel channel) throws IOException {
+        long start = System.nanoTime();
+        _bytesRead = 0;
         try {
             ByteBuffer buffer = ByteBuffer.allocate(100000);
-            while (channel.read(buffer) >= 0) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                _bytesRead += read;
                 buffer.flip();
                 _sync.process(buffer);
                 buffer.clear();
@@ -40,6 +54,63 @@ public class ChannelProcessor {
         } finally {
             _sync.close();
         }
+        logThroughput(start);
+    }
+
+    /**
+     * Walks the file in large memory-mapped windows. Each window starts at the
+     * first byte that the frame synchronizer did not consume from the previous
+     * window, so consecutive windows overlap by less than a frame and frames
+     * never have to be stitched together from a carry-over copy.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void readMapped(File file) throws IOException {
+        long start = System.nanoTime();
+        _bytesRead = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(_windowSize, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (position + length >= size) {
+                    _sync.process(window);
+                    position = size;
+                } else {
+                    _sync.processWindow(window);
+                    if (window.position() == 0) {
+                        // nothing could be consumed, fall back to the carry-over cache
+                        _sync.process(window);
+                        window.position(window.limit());
+                    }
+                    position += window.position();
+                }
+            }
+            _bytesRead = size;
+        } finally {
+            _sync.close();
+        }
+        logThroughput(start);
+    }
+
+    private void logThroughput(long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double mbPerSecond = seconds > 0 ? _bytesRead / (1024.0 * 1024.0) / seconds : 0;
+        LOG.info(String.format("Processed %s in %.1fs (%.1f MB/s)", ByteSizeFormatter.format(_bytesRead), seconds, mbPerSecond));
+    }
+
+    public long getBytesRead() {
+        return _bytesRead;
+    }
+
+    public int getWindowSize() {
+        return _windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        _windowSize = Math.max(MIN_WINDOW_SIZE, windowSize);
     }
 
 }
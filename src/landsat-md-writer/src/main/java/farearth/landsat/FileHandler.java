@@ -25,6 +25,18 @@ public interface FileHandler extends AutoCloseable, Closeable {
 
     void fileData(Slice data, APID apid, int length, long offset) throws IOException;
 
+    /**
+     * Called before the data of a packet that breaks the sequence count of
+     * its APID (see {@link ApidPayloadHandler#sequenceGap(APID, int, int)}).
+     *
+     * @param apid
+     * @param lastCount
+     * @param nextCount
+     * @throws IOException
+     */
+    default void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+    }
+
     @Override
     void close() throws IOException;
 
@@ -61,6 +73,7 @@ public interface FileHandler extends AutoCloseable, Closeable {
         private long _bytesLost = 0;
         private long _lastOffset = -1;
         private int _lastBytesReceived = 0;
+        private int _checksum = 0;
         private boolean _ignoreLeadingPartials = false;
 
         private String _currentFilename = null;
@@ -91,6 +104,7 @@ public interface FileHandler extends AutoCloseable, Closeable {
             _bytesReceived = 0;
             _bytesLost = 0;
             _lastOffset = -1;
+            _checksum = 0;
             _fileStart = null;
             _isWriting = false;
         }
@@ -122,6 +136,7 @@ public interface FileHandler extends AutoCloseable, Closeable {
                     }
                     _lastBytesReceived = length;
                     _lastOffset = offset;
+                    _checksum = CfdpChecksum.add(_checksum, data, offset);
                     if (!_isWriting) {
                         startFile(_currentFilename, _fileStart, new Date(), isLeadingPartial());
                         _isWriting = true;
@@ -133,6 +148,15 @@ public interface FileHandler extends AutoCloseable, Closeable {
             }
         }
 
+        @Override
+        public void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+            if (_isWriting) {
+                long offset = _lastOffset < 0 ? 0 : _lastOffset + _lastBytesReceived;
+                LOG.debug("Sequence gap on {} from {} to {} at offset {}", apid, lastCount, nextCount, offset);
+                writeSequenceGap(apid, lastCount, nextCount, offset);
+            }
+        }
+
         private boolean isLeadingPartial() {
             return _currentFilename == null;
         }
@@ -157,6 +181,14 @@ public interface FileHandler extends AutoCloseable, Closeable {
             return _bytesLost;
         }
 
+        /**
+         * @return the CFDP modular checksum of the data received for the
+         * current file, for comparison with the checksum of its EOF PDU
+         */
+        public int getComputedChecksum() {
+            return _checksum;
+        }
+
         public boolean isIgnoreLeadingPartials() {
             return _ignoreLeadingPartials;
         }
@@ -179,6 +211,19 @@ public interface FileHandler extends AutoCloseable, Closeable {
 
         protected abstract void writeData(Slice data, long offset) throws IOException;
 
+        /**
+         * Records a sequence gap in the file being written. Does nothing by
+         * default.
+         *
+         * @param apid
+         * @param lastCount
+         * @param nextCount
+         * @param offset the file offset at which the missing data starts
+         * @throws IOException
+         */
+        protected void writeSequenceGap(APID apid, int lastCount, int nextCount, long offset) throws IOException {
+        }
+
     }
 
     public static class Printer extends Abstract {
@@ -237,43 +282,4 @@ public interface FileHandler extends AutoCloseable, Closeable {
 
     }
 
-    public static class Filtered implements FileHandler {
-
-        private final ApidFilter _filter;
-        private final FileHandler _delegate;
-
-        public Filtered(FileHandler delegate, ApidFilter filter) {
-            _delegate = delegate;
-            _filter = filter;
-        }
-
-        @Override
-        public void startFile(String name) throws IOException {
-            _delegate.startFile(name);
-        }
-
-        @Override
-        public void endFile(long filesize, int checksum) throws IOException {
-            _delegate.endFile(filesize, checksum);
-        }
-
-        @Override
-        public void fileData(Slice data, APID apid, int length, long offset) throws IOException {
-            if (_filter.pass(apid)) {
-                _delegate.fileData(data, apid, length, offset);
-            }
-        }
-
-        @Override
-        public void close() throws IOException {
-            _delegate.close();
-        }
-
-        @Override
-        public void dataLost() {
-            _delegate.dataLost();
-        }
-
-    }
-
 }
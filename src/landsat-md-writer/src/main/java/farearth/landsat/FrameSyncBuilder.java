@@ -4,14 +4,14 @@
  */
 package farearth.landsat;
 
+import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderAccurate;
 import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderFast;
+import farearth.landsat.ldpc.decode.Landsat8LdpcMinSumDecoder;
 import farearth.landsat.quality.CaduQualityMetric;
 import farearth.landsat.quality.NoCaduLostPerTimeMetric;
 import farearth.landsat.quality.QualityAwareFileHandler;
 import java.io.File;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.function.Function;
@@ -22,15 +22,27 @@ import java.util.function.Function;
  */
 public class FrameSyncBuilder {
 
-    private final Map<Integer, List<FileHandler>> _additionalHandlers = new HashMap<>();
+    public static final int DEFAULT_LDPC_MAX_ERRORS = 60;
+    public static final int DEFAULT_LDPC_FALLBACK_MAX_ERRORS = 200;
+    private static final int DEFAULT_VC_RING_SIZE = 1024;
+
+    private final Map<Integer, ApidRouter> _additionalHandlers = new HashMap<>();
     private final Properties _properties = new Properties();
     private File _passPropertyFile;
     private File _ssohFolder = null;
     private Properties _additionalPassProperties;
     private boolean _queueSsoh;
     private Landsat8LdpcDecoderFast _ldpcDecoder;
+    private Landsat8LdpcMinSumDecoder _softLdpcDecoder;
     private boolean _derandomize = false;
+    private int _ldpcThreads = Runtime.getRuntime().availableProcessors();
+    private boolean _ldpcShedLoad = false;
+    private Landsat8LdpcDecoderAccurate _ldpcFallbackDecoder;
+    private boolean _ldpcCaduResync = false;
+    private boolean _ldpcCaduAsmCheck = true;
     private int _startRecordingAfterErrorFreeData = 0;
+    private SyncSettings _syncSettings = SyncSettings.DEFAULT;
+    private int _vcRingSize = 0;
 
     public FrameSyncBuilder writePlaybackData(File folder, boolean queued) {
         if (folder != null) {
@@ -76,7 +88,7 @@ public class FrameSyncBuilder {
     }
 
     public FrameSyncBuilder processLdpc(boolean derandomize) {
-        return processLdpc(derandomize, true, 60);
+        return processLdpc(derandomize, true, DEFAULT_LDPC_MAX_ERRORS);
     }
 
     public FrameSyncBuilder processLdpc(boolean derandomize, boolean detectErrors, int maxErrorsToFix) {
@@ -85,6 +97,126 @@ public class FrameSyncBuilder {
         return this;
     }
 
+    public FrameSyncBuilder processSoftLdpc(boolean derandomize) {
+        return processSoftLdpc(derandomize, 20);
+    }
+
+    /**
+     * Decodes LDPC soft symbols, one signed byte per channel bit, instead of
+     * hard decision LDPC frames.
+     *
+     * @param derandomize
+     * @param maxIterations
+     * @return
+     */
+    public FrameSyncBuilder processSoftLdpc(boolean derandomize, int maxIterations) {
+        _derandomize = derandomize;
+        _softLdpcDecoder = new Landsat8LdpcMinSumDecoder(maxIterations);
+        return this;
+    }
+
+    /**
+     * Sets the size of the LDPC decoder pool, defaults to the number of
+     * available processors.
+     *
+     * @param threads
+     * @return
+     */
+    public FrameSyncBuilder ldpcThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one LDPC decoder thread is required");
+        }
+        _ldpcThreads = threads;
+        return this;
+    }
+
+    /**
+     * Lowers the LDPC error correction effort as the decoder falls behind and
+     * retries the hard frames in the background, so a live feed keeps up at
+     * the cost of frames that need many corrections. Off by default, which
+     * decodes every frame with the full effort.
+     *
+     * @param shedLoad
+     * @return
+     */
+    public FrameSyncBuilder ldpcShedLoad(boolean shedLoad) {
+        _ldpcShedLoad = shedLoad;
+        return this;
+    }
+
+    public FrameSyncBuilder ldpcFallback() {
+        return ldpcFallback(DEFAULT_LDPC_FALLBACK_MAX_ERRORS);
+    }
+
+    /**
+     * Retries the LDPC frames that the fast decoder cannot correct with the
+     * accurate decoder, on a background pool so that the frames behind them
+     * keep flowing. Recovered frames keep their place in the output.
+     *
+     * @param maxErrorsToFix the accurate decoder's budget, 0 to disable
+     * @return
+     */
+    public FrameSyncBuilder ldpcFallback(int maxErrorsToFix) {
+        _ldpcFallbackDecoder = maxErrorsToFix > 0 ? new Landsat8LdpcDecoderAccurate(true, maxErrorsToFix) : null;
+        return this;
+    }
+
+    /**
+     * By default the CADUs are cut from the decoded LDPC stream at fixed
+     * offsets once their phase is found, the decoder reports the frames it
+     * loses so that no scan is needed. Resyncing scans the decoded frames
+     * for CADUs like a plain recording instead.
+     *
+     * @param resync
+     * @return
+     */
+    public FrameSyncBuilder ldpcCaduResync(boolean resync) {
+        _ldpcCaduResync = resync;
+        return this;
+    }
+
+    /**
+     * Checks the ASM of every CADU cut from the decoded LDPC stream, and
+     * searches the CADU phase again once the flywheel tolerance of the
+     * {@link SyncSettings} runs out. On by default.
+     *
+     * @param check
+     * @return
+     */
+    public FrameSyncBuilder ldpcCaduAsmCheck(boolean check) {
+        _ldpcCaduAsmCheck = check;
+        return this;
+    }
+
+    /**
+     * Sets the thresholds of the CADU frame synchronizer state machine.
+     *
+     * @param settings
+     * @return
+     */
+    public FrameSyncBuilder syncSettings(SyncSettings settings) {
+        _syncSettings = settings;
+        return this;
+    }
+
+    public FrameSyncBuilder parallelVirtualChannels(boolean enabled) {
+        return parallelVirtualChannels(enabled, DEFAULT_VC_RING_SIZE);
+    }
+
+    /**
+     * Lets the frame synchronizer only demultiplex CADUs. Every virtual
+     * channel is then parsed and written on its own thread, fed through a
+     * ring of the given number of CADUs.
+     *
+     * @param enabled
+     * @param ringSize
+     * @return
+     */
+    public FrameSyncBuilder parallelVirtualChannels(boolean enabled, int ringSize) {
+        _vcRingSize = enabled ? ringSize : 0;
+        return this;
+    }
+
     private FrameSyncBuilder process(int vcID, FileHandler handler, boolean queued, String... bands) {
         if (queued) {
             handler = new QueuedFileHandler.Block(handler, 20, String.format("queued-processor-VC%02d", vcID));
@@ -118,7 +250,7 @@ public class FrameSyncBuilder {
     }
 
     private FrameSyncBuilder write(int vc, ApidFilter filter, FileHandler handler) {
-        add(vc, new FileHandler.Filtered(handler, filter));
+        add(vc, handler, filter);
         return this;
     }
 
@@ -133,47 +265,46 @@ public class FrameSyncBuilder {
     }
 
     private void add(int vc, FileHandler handler) {
-        List<FileHandler> handlers = _additionalHandlers.get(vc);
-        if (handlers == null) {
-            handlers = new LinkedList<>();
-            _additionalHandlers.put(vc, handlers);
-        }
-        handlers.add(handler);
+        add(vc, handler, new ApidFilter.All());
+    }
+
+    private void add(int vc, FileHandler handler, ApidFilter filter) {
+        _additionalHandlers.computeIfAbsent(vc, v -> new ApidRouter()).add(handler, filter);
     }
 
     public FrameSynchronizer build() {
         FrameSynchronizer result;
         Map<Integer, PayloadHandler> handlers = new HashMap<>();
-        for (Map.Entry<Integer, List<FileHandler>> entry : _additionalHandlers.entrySet()) {
-            int vc = entry.getKey();
-            List<FileHandler> fileHandlers = entry.getValue();
-            if (fileHandlers != null) {
-                FileMultiplexer mux = new FileMultiplexer(fileHandlers.toArray(new FileHandler[fileHandlers.size()]));
-                CaduHandler caduHandler = createMDStack(mux);
-                handlers.put(vc, caduHandler);
-            }
+        for (Map.Entry<Integer, FileHandler> entry : buildFileHandlers().entrySet()) {
+            handlers.put(entry.getKey(), createMDStack(entry.getValue()));
         }
-        if (_ssohFolder != null) {
-            PayloadHandler writer0 = new SsohFileWriter(0, _ssohFolder);
-            PayloadHandler writer1 = new SsohFileWriter(1, _ssohFolder);
-            if (_queueSsoh) {
-                writer0 = new QueuedPayloadHandler.Block(writer0, 20);
-                writer1 = new QueuedPayloadHandler.Block(writer1, 20);
+        handlers.putAll(buildStateOfHealthHandlers());
+        if (_vcRingSize > 0) {
+            for (Map.Entry<Integer, PayloadHandler> entry : handlers.entrySet()) {
+                entry.setValue(new RingPayloadHandler(entry.getValue(), _vcRingSize, String.format("vc-worker-VC%02d", entry.getKey())));
             }
-            handlers.put(VCID.STATE_OF_HEALTH_0, writer0);
-            handlers.put(VCID.STATE_OF_HEALTH_1, writer1);
         }
-        FrameSynchronizer sync = new Landsat8FrameSynchronizer(handlers);
-        if (_ldpcDecoder != null) {
-            sync = new Landsat8LdpcFrameSynchronizer(_ldpcDecoder, _derandomize, sync);
+        FrameSynchronizer sync;
+        SyncStatistics statistics;
+        if ((_softLdpcDecoder != null || _ldpcDecoder != null) && !_ldpcCaduResync) {
+            Landsat8CaduAssembler assembler = new Landsat8CaduAssembler(handlers, _syncSettings, _ldpcCaduAsmCheck);
+            statistics = assembler.getStatistics();
+            sync = assembler;
+        } else {
+            Landsat8FrameSynchronizer synchronizer = new Landsat8FrameSynchronizer(handlers, _syncSettings);
+            statistics = synchronizer.getStatistics();
+            sync = synchronizer;
+        }
+        if (_softLdpcDecoder != null) {
+            sync = new Landsat8SoftLdpcFrameSynchronizer(_softLdpcDecoder, _derandomize, sync);
+        } else if (_ldpcDecoder != null) {
+            sync = new Landsat8LdpcFrameSynchronizer(_ldpcDecoder, _ldpcFallbackDecoder, _derandomize, sync, _ldpcThreads, _ldpcShedLoad);
         }
         if (_passPropertyFile != null) {
             ReportingFrameSynchronizer wrapper = new ReportingFrameSynchronizer(sync);
             wrapper.setOutputPropertiesFile(_passPropertyFile);
-            if (_additionalPassProperties != null) {
-                _properties.putAll(_additionalPassProperties);
-            }
-            wrapper.setAdditionalProperties(_properties);
+            wrapper.setAdditionalProperties(getPassProperties());
+            wrapper.setStatistics(statistics);
             result = wrapper;
         } else {
             result = sync;
@@ -181,6 +312,55 @@ public class FrameSyncBuilder {
         return result;
     }
 
+    /**
+     * Builds a processor that splits a recording into ASM-aligned byte ranges
+     * and runs each range through its own frame synchronizer and packet stack
+     * on one of the given number of threads. The pass properties hold the
+     * synchronizer statistics summed over the ranges.
+     *
+     * @param threads
+     * @return
+     */
+    public SplitFileProcessor buildSplit(int threads) {
+        if (_ldpcDecoder != null || _softLdpcDecoder != null) {
+            throw new IllegalStateException("Split processing is not supported for LDPC encoded data");
+        }
+        if (_vcRingSize > 0) {
+            throw new IllegalStateException("Split processing is not supported with parallel virtual channels");
+        }
+        SplitFileProcessor processor = new SplitFileProcessor(buildFileHandlers(), buildStateOfHealthHandlers(), _syncSettings, threads);
+        if (_passPropertyFile != null) {
+            processor.setPassProperties(_passPropertyFile, getPassProperties());
+        }
+        return processor;
+    }
+
+    private Properties getPassProperties() {
+        if (_additionalPassProperties != null) {
+            _properties.putAll(_additionalPassProperties);
+        }
+        return _properties;
+    }
+
+    private Map<Integer, FileHandler> buildFileHandlers() {
+        return new HashMap<>(_additionalHandlers);
+    }
+
+    private Map<Integer, PayloadHandler> buildStateOfHealthHandlers() {
+        Map<Integer, PayloadHandler> handlers = new HashMap<>();
+        if (_ssohFolder != null) {
+            PayloadHandler writer0 = new SsohFileWriter(0, _ssohFolder);
+            PayloadHandler writer1 = new SsohFileWriter(1, _ssohFolder);
+            if (_queueSsoh) {
+                writer0 = new QueuedPayloadHandler.Block(writer0, 20);
+                writer1 = new QueuedPayloadHandler.Block(writer1, 20);
+            }
+            handlers.put(VCID.STATE_OF_HEALTH_0, writer0);
+            handlers.put(VCID.STATE_OF_HEALTH_1, writer1);
+        }
+        return handlers;
+    }
+
     private static Properties createVcProperties(String vc) {
         Properties p = new Properties();
         p.put("vc", vc);
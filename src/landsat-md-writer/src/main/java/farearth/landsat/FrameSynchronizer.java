@@ -15,6 +15,33 @@ public interface FrameSynchronizer extends AutoCloseable {
 
     void process(ByteBuffer buffer) throws IOException;
 
+    /**
+     * Processes all complete frames in the buffer without keeping a copy of
+     * the unprocessed tail. On return the buffer position is at the first byte
+     * that has not been consumed, so that the caller can offer it again at the
+     * start of the next window (e.g. of a memory-mapped file).
+     *
+     * @param buffer
+     * @throws IOException
+     */
+    default void processWindow(ByteBuffer buffer) throws IOException {
+        process(buffer);
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Tells a synchronizer that is fed by a decoder that part of its stream
+     * could not be decoded, so the bytes passed to the next process() call do
+     * not follow the previous ones. The default ignores the gap: a
+     * synchronizer that scans for its frames finds them again by itself.
+     *
+     * @param byteCount the number of bytes that are missing, or -1 if it is
+     * not known
+     * @throws IOException
+     */
+    default void dataLost(int byteCount) throws IOException {
+    }
+
     @Override
     void close() throws IOException;
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.AsmScanner;
+import farearth.landsat.util.BufferPool;
+import farearth.landsat.util.PooledBuffer;
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.Slices;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cuts the CADUs out of a decoded stream, such as the output of an LDPC
+ * decoder, that is known to be contiguous apart from the gaps the decoder
+ * reports through {@link #dataLost(int)}. The CADU phase is only searched for
+ * at the start and after a gap of unknown size; from then on every
+ * {@link CaduHeader#CADU_SIZE} bytes are handed to the handler of their VC
+ * without scanning. A known gap keeps the phase and only drops the CADUs it
+ * overlaps.
+ * <p>
+ * The ASM of every CADU can still be checked, in which case the phase is
+ * searched for again once more ASMs than the flywheel tolerance of the
+ * {@link SyncSettings} are missed in a row.
+ *
+ * @author Chris
+ */
+class Landsat8CaduAssembler implements FrameSynchronizer {
+
+    private static final int POOLED_CADUS = 64;
+    private static final int SEARCH_SIZE = 4 * CaduHeader.CADU_SIZE;
+    private static final Logger LOG = LoggerFactory.getLogger(Landsat8CaduAssembler.class);
+
+    private final Map<Integer, PayloadHandler> _handlers;
+    private final BufferPool _pool = new BufferPool(CaduHeader.CADU_SIZE, POOLED_CADUS);
+    private final ByteBuffer _search = ByteBuffer.allocate(SEARCH_SIZE);
+    private final SyncSettings _settings;
+    private final boolean _checkAsm;
+    private final SyncStatistics _statistics = new SyncStatistics();
+    private SyncState _state = SyncState.Search;
+    private PooledBuffer _cadu; // the CADU being filled, null between CADUs
+    private int _skip; // bytes of a lost CADU still to come
+    private int _missed;
+    private long _lostCadus;
+
+    public Landsat8CaduAssembler(Map<Integer, PayloadHandler> handlers, SyncSettings settings, boolean checkAsm) {
+        _handlers = handlers;
+        _settings = settings;
+        _checkAsm = checkAsm;
+    }
+
+    public SyncStatistics getStatistics() {
+        return _statistics;
+    }
+
+    /**
+     * @return CADUs that overlapped a gap in the decoded stream
+     */
+    public long getLostCadus() {
+        return _lostCadus;
+    }
+
+    @Override
+    public void process(ByteBuffer buffer) throws IOException {
+        _statistics.start();
+        while (buffer.hasRemaining()) {
+            if (_state == SyncState.Search) {
+                ByteBuffer found = search(buffer);
+                if (found != null) {
+                    process(found);
+                }
+            } else {
+                assemble(buffer);
+            }
+        }
+    }
+
+    @Override
+    public void dataLost(int byteCount) throws IOException {
+        if (_state == SyncState.Search) {
+            _search.clear();
+        } else if (byteCount < 0) {
+            if (_cadu != null) {
+                _lostCadus++;
+            }
+            dropCadu();
+            transition(SyncState.Search);
+        } else if (byteCount > 0) {
+            boolean counted = _skip > 0;
+            int position = counted ? CaduHeader.CADU_SIZE - _skip : _cadu == null ? 0 : _cadu.getBuffer().position();
+            int end = position + byteCount;
+            _lostCadus += (end + CaduHeader.CADU_SIZE - 1) / CaduHeader.CADU_SIZE - (counted ? 1 : 0);
+            dropCadu();
+            _skip = (CaduHeader.CADU_SIZE - end % CaduHeader.CADU_SIZE) % CaduHeader.CADU_SIZE;
+        }
+    }
+
+    /**
+     * Adds the buffer to the search window and looks for the start of a CADU
+     * that is followed by the ASM of the next one.
+     *
+     * @param buffer
+     * @return the bytes from the CADU start on, or null if there is none yet
+     */
+    private ByteBuffer search(ByteBuffer buffer) {
+        int count = Math.min(buffer.remaining(), _search.remaining());
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.limit(chunk.position() + count);
+        _search.put(chunk);
+        buffer.position(buffer.position() + count);
+        _search.flip();
+        int end = _search.limit() - CaduHeader.CADU_SIZE - CaduHeader.ASM_SIZE + 1;
+        int index = AsmScanner.indexOf(_search, CaduHeader.ASM, 0, end);
+        while (index >= 0 && !Landsat8FrameSynchronizer.isCaduStart(_search, index)) {
+            index = AsmScanner.indexOf(_search, CaduHeader.ASM, index + 1, end);
+        }
+        if (index < 0) {
+            _search.position(Math.max(0, end));
+            _search.compact();
+            return null;
+        }
+        _search.position(index);
+        ByteBuffer found = ByteBuffer.allocate(_search.remaining());
+        found.put(_search).flip();
+        _search.clear();
+        _missed = 0;
+        transition(SyncState.Lock);
+        return found;
+    }
+
+    private void assemble(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && _state != SyncState.Search) {
+            if (_skip > 0) {
+                int count = Math.min(_skip, buffer.remaining());
+                buffer.position(buffer.position() + count);
+                _skip -= count;
+                continue;
+            }
+            if (_cadu == null) {
+                _cadu = _pool.acquire();
+            }
+            ByteBuffer cadu = _cadu.getBuffer();
+            int count = Math.min(cadu.remaining(), buffer.remaining());
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit(chunk.position() + count);
+            cadu.put(chunk);
+            buffer.position(buffer.position() + count);
+            if (!cadu.hasRemaining()) {
+                cadu.flip();
+                complete();
+            }
+        }
+    }
+
+    private void complete() throws IOException {
+        PooledBuffer copy = _cadu;
+        _cadu = null;
+        ByteBuffer cadu = copy.getBuffer();
+        if (_checkAsm) {
+            if (Integer.bitCount(cadu.getInt(0) ^ CaduHeader.ASM) <= _settings.getAsmBitErrors()) {
+                _missed = 0;
+                transition(SyncState.Lock);
+            } else if (++_missed > _settings.getFlywheelFrames()) {
+                // out of phase, the next CADU could start anywhere after this one's first byte
+                cadu.position(1);
+                _search.put(cadu);
+                copy.release();
+                transition(SyncState.Search);
+                return;
+            } else {
+                transition(SyncState.Flywheel);
+                _statistics.flywheelFrame();
+            }
+        }
+        int vcID = Landsat8FrameSynchronizer.getVc(cadu, 0);
+        PayloadHandler handler = vcID < 0 ? null : _handlers.get(vcID);
+        if (vcID < 0) {
+            _statistics.droppedFrame();
+        }
+        if (handler == null) {
+            copy.release();
+            return;
+        }
+        Slice slice = Slices.create(copy);
+        try {
+            handler.payload(slice);
+        } finally {
+            slice.release();
+        }
+    }
+
+    private void dropCadu() {
+        if (_cadu != null) {
+            _cadu.release();
+            _cadu = null;
+        }
+        _skip = 0;
+    }
+
+    private void transition(SyncState state) {
+        if (state != _state) {
+            _statistics.transition(state);
+            _state = state;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (_state == SyncState.Search) {
+                // the last CADU has no ASM after it to confirm it
+                _search.flip();
+                int end = _search.limit() - CaduHeader.CADU_SIZE + 1;
+                int index = AsmScanner.indexOf(_search, CaduHeader.ASM, 0, end);
+                while (index >= 0 && Landsat8FrameSynchronizer.getVc(_search, index) < 0) {
+                    index = AsmScanner.indexOf(_search, CaduHeader.ASM, index + 1, end);
+                }
+                if (index >= 0) {
+                    _search.position(index);
+                    _search.limit(index + CaduHeader.CADU_SIZE);
+                    _cadu = _pool.acquire();
+                    _cadu.getBuffer().put(_search).flip();
+                    complete();
+                }
+            }
+        } finally {
+            dropCadu();
+            _statistics.stop();
+            LOG.info("CADU assembly: {}, lost CADUs {}", _statistics, _lostCadus);
+            Landsat8FrameSynchronizer.closeHandlers(_handlers);
+            if (_pool.getOutstanding() > 0) {
+                LOG.warn("CADU buffers were not released: {}", _pool);
+            } else {
+                LOG.debug("CADU buffer pool: {}", _pool);
+            }
+        }
+    }
+}
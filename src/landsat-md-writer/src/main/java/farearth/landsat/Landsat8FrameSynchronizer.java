@@ -4,6 +4,9 @@
  */
 package farearth.landsat;
 
+import farearth.landsat.util.BufferPool;
+import farearth.landsat.util.CarryOverBuffer;
+import farearth.landsat.util.PooledBuffer;
 import farearth.landsat.util.Slice;
 import farearth.landsat.util.Slices;
 import java.io.IOException;
@@ -20,58 +23,192 @@ class Landsat8FrameSynchronizer implements FrameSynchronizer {
 
     private static final int LANDSAT8 = 0xFA;
     private static final int VERSION = 1;
+    private static final int POOLED_CADUS = 64;
     private static final Logger LOG = LoggerFactory.getLogger(Landsat8FrameSynchronizer.class);
 
     private final Map<Integer, PayloadHandler> _handlers;
-    private ByteBuffer _cache;
+    private final CarryOverBuffer _carry = new CarryOverBuffer(CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE);
+    private final BufferPool _pool = new BufferPool(CaduHeader.CADU_SIZE, POOLED_CADUS);
+    private final SyncSettings _settings;
+    private final SyncStatistics _statistics = new SyncStatistics();
+    private SyncState _state = SyncState.Search;
+    private int _verified;
+    private int _missed;
 
     public Landsat8FrameSynchronizer(Map<Integer, PayloadHandler> handlers) {
+        this(handlers, SyncSettings.DEFAULT);
+    }
+
+    public Landsat8FrameSynchronizer(Map<Integer, PayloadHandler> handlers, SyncSettings settings) {
         _handlers = handlers;
+        _settings = settings;
+    }
+
+    public SyncStatistics getStatistics() {
+        return _statistics;
     }
 
     @Override
     public void process(ByteBuffer buffer) throws IOException {
-        Slice slice;
-        if (_cache != null) {
-            slice = Slices.create(_cache, buffer);
-        } else {
-            slice = Slices.create(buffer);
+        consume(buffer);
+        _carry.keep(buffer);
+    }
+
+    @Override
+    public void processWindow(ByteBuffer buffer) throws IOException {
+        consume(buffer);
+    }
+
+    private void consume(ByteBuffer buffer) throws IOException {
+        _statistics.start();
+        if (!_carry.isEmpty()) {
+            processFrames(_carry.stitch(buffer));
+            _carry.release(buffer);
+        }
+        if (_carry.isEmpty()) {
+            processFrames(buffer);
         }
+    }
+
+    private void processFrames(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        Slice slice = Slices.create(buffer, start, buffer.limit());
         while (slice.remaining() >= CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE) {
             process(slice);
         }
-        if (slice.remaining() > 0) {
-            _cache = ByteBuffer.allocate(slice.remaining());
-            slice.read(_cache);
-        } else {
-            _cache = null;
+        int position = slice.position();
+        if (position == slice.limit()) {
+            // the scan ran out of data, keep what could be the start of an ASM
+            position = Math.max(0, position - (CaduHeader.ASM_SIZE - 1));
         }
+        buffer.position(start + position);
     }
 
     private void process(Slice slice) throws IOException {
-        int vcID = alignToCadu(slice);
-        if (vcID >= 0) {
-            if (slice.remaining() >= CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE) {
-                int position = slice.position();
+        if (_state == SyncState.Search) {
+            if (alignToCadu(slice) < 0) {
+                return;
+            }
+            transition(SyncState.Check);
+            _verified = 0;
+            if (slice.remaining() < CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE) {
+                return;
+            }
+        }
+        if (_state == SyncState.Check) {
+            processUnlocked(slice);
+        } else {
+            processLocked(slice);
+        }
+    }
+
+    private void processUnlocked(Slice slice) throws IOException {
+        int position = slice.position();
+        slice.skip(CaduHeader.CADU_SIZE);
+        boolean confirmed = isAsm(slice);
+        slice.position(position + CaduHeader.ASM_SIZE);
+        int vcID = readVc(slice);
+        slice.position(position);
+        if (confirmed && vcID >= 0) {
+            dispatch(vcID, slice);
+            if (++_verified >= _settings.getVerifyFrames()) {
+                transition(SyncState.Lock);
+            }
+        } else {
+            slice.skip(CaduHeader.ASM_SIZE);
+            transition(SyncState.Search);
+        }
+    }
+
+    private void processLocked(Slice slice) throws IOException {
+        int position = slice.position();
+        boolean hit = isAsm(slice);
+        int vcID = readVc(slice);
+        slice.position(position);
+        if (hit && vcID >= 0) {
+            transition(SyncState.Lock);
+            dispatch(vcID, slice);
+        } else if (++_missed > _settings.getFlywheelFrames()) {
+            transition(SyncState.Search);
+        } else {
+            transition(SyncState.Flywheel);
+            if (vcID >= 0) {
+                _statistics.flywheelFrame();
+                dispatch(vcID, slice);
+            } else {
+                _statistics.droppedFrame();
                 slice.skip(CaduHeader.CADU_SIZE);
-                if (readAsm(slice)) {
-                    slice.position(position);
-                    PayloadHandler handler = _handlers.get(vcID);
-                    if (handler != null) {
-                        ByteBuffer copy = ByteBuffer.allocate(CaduHeader.CADU_SIZE);
-                        slice.read(copy);
-                        handler.payload(Slices.create(copy));
-                    } else {
-                        slice.skip(CaduHeader.CADU_SIZE);
-                    }
-                } else {
-                    slice.position(position + CaduHeader.ASM_SIZE);
-                }
+            }
+        }
+    }
 
+    private void transition(SyncState state) {
+        if (state != _state) {
+            _statistics.transition(state);
+            _state = state;
+            if (state == SyncState.Search || state == SyncState.Lock) {
+                // a lock starts without misses, whichever way it was reached
+                _missed = 0;
             }
         }
     }
 
+    private boolean isAsm(Slice slice) throws IOException {
+        int errors = Integer.bitCount((int) slice.getBytesAsLong(CaduHeader.ASM_SIZE) ^ CaduHeader.ASM);
+        return errors <= _settings.getAsmBitErrors();
+    }
+
+    private void dispatch(int vcID, Slice slice) throws IOException {
+        PayloadHandler handler = _handlers.get(vcID);
+        if (handler != null) {
+            dispatch(handler, slice);
+        } else {
+            slice.skip(CaduHeader.CADU_SIZE);
+        }
+    }
+
+    /**
+     * Checks for a CADU ASM with a valid Landsat 8 VC at the index, followed by
+     * the ASM of the next CADU.
+     *
+     * @param buffer
+     * @param index
+     * @return
+     */
+    static boolean isCaduStart(ByteBuffer buffer, int index) {
+        if (index + CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE > buffer.limit()) {
+            return false;
+        }
+        return buffer.getInt(index) == CaduHeader.ASM
+                && buffer.getInt(index + CaduHeader.CADU_SIZE) == CaduHeader.ASM
+                && getVc(buffer, index) >= 0;
+    }
+
+    /**
+     * @param buffer
+     * @param index the start of a CADU, at its ASM
+     * @return the VC of the CADU, or -1 if it is not a valid Landsat 8 header
+     */
+    static int getVc(ByteBuffer buffer, int index) {
+        return CaduHeader.getVcAndCheck(buffer.get(index + CaduHeader.ASM_SIZE) & 0xFF,
+                buffer.get(index + CaduHeader.ASM_SIZE + 1) & 0xFF, VERSION, LANDSAT8);
+    }
+
+    /**
+     * Hands a copy of the next CADU to the handler. The copy goes back to the
+     * pool once the handler, and anything that retained it, is done with it.
+     */
+    private void dispatch(PayloadHandler handler, Slice slice) throws IOException {
+        PooledBuffer copy = _pool.acquire();
+        slice.read(copy.getBuffer());
+        Slice cadu = Slices.create(copy);
+        try {
+            handler.payload(cadu);
+        } finally {
+            cadu.release();
+        }
+    }
+
     private int alignToCadu(Slice slice) throws IOException {
         int vcID = readValidStart(slice);
         if (vcID < 0) {
@@ -100,7 +237,7 @@ class Landsat8FrameSynchronizer implements FrameSynchronizer {
 
     private int scanToValidStart(Slice slice) throws IOException {
         int vc = -1;
-        while (vc < 0 && scanToASM(slice)) {
+        while (vc < 0 && slice.scanTo(CaduHeader.ASM)) {
             vc = readVc(slice);
             if (vc < 0) {
                 slice.skip(-2);
@@ -109,20 +246,6 @@ class Landsat8FrameSynchronizer implements FrameSynchronizer {
         return vc;
     }
 
-    private boolean scanToASM(Slice slice) throws IOException {
-        int scanValue = 0;
-        int read = slice.getUnsignedByte();
-        while (read >= 0) {
-            scanValue <<= 8;
-            scanValue += read;
-            if (scanValue == CaduHeader.ASM) {
-                return true;
-            }
-            read = slice.getUnsignedByte();
-        }
-        return false;
-    }
-
     private int readVc(Slice slice) throws IOException {
         int byte1 = slice.getUnsignedByte();
         int byte2 = slice.getUnsignedByte();
@@ -137,9 +260,9 @@ class Landsat8FrameSynchronizer implements FrameSynchronizer {
         return vcID;
     }
 
-    private void closeHandlers() throws IOException {
+    static void closeHandlers(Map<Integer, PayloadHandler> handlers) throws IOException {
         IOException lastException = null;
-        for (PayloadHandler handler : _handlers.values()) {
+        for (PayloadHandler handler : handlers.values()) {
             lastException = closeQuietly(handler);
         }
         if (lastException != null) {
@@ -147,7 +270,7 @@ class Landsat8FrameSynchronizer implements FrameSynchronizer {
         }
     }
 
-    private IOException closeQuietly(PayloadHandler closeable) {
+    private static IOException closeQuietly(PayloadHandler closeable) {
         try {
             closeable.close();
             return null;
@@ -159,22 +282,28 @@ class Landsat8FrameSynchronizer implements FrameSynchronizer {
     @Override
     public void close() throws IOException {
         try {
-            if (_cache != null && _cache.remaining() >= CaduHeader.CADU_SIZE) {
-                Slice slice = Slices.create(_cache);
+            ByteBuffer carried = _carry.drain();
+            if (carried.remaining() >= CaduHeader.CADU_SIZE) {
+                Slice slice = Slices.create(carried);
                 int vcID = alignToCadu(slice);
                 if (vcID >= 0) {
                     if (slice.remaining() >= CaduHeader.CADU_SIZE) {
                         PayloadHandler handler = _handlers.get(vcID);
                         if (handler != null) {
-                            ByteBuffer copy = ByteBuffer.allocate(CaduHeader.CADU_SIZE);
-                            slice.read(copy);
-                            handler.payload(Slices.create(copy));
+                            dispatch(handler, slice);
                         }
                     }
                 }
             }
         } finally {
-            closeHandlers();
+            _statistics.stop();
+            LOG.info("Frame sync: {}", _statistics);
+            closeHandlers(_handlers);
+            if (_pool.getOutstanding() > 0) {
+                LOG.warn("CADU buffers were not released: {}", _pool);
+            } else {
+                LOG.debug("CADU buffer pool: {}", _pool);
+            }
         }
     }
 
@@ -5,57 +5,118 @@
 package farearth.landsat;
 
 import farearth.landsat.ldpc.Landsat8LdpcConstants;
-import farearth.landsat.ldpc.decode.LdpcDecodeResult;
+import farearth.landsat.ldpc.decode.LdpcBitSlicedChecks;
+import farearth.landsat.ldpc.decode.LdpcDecodeBudget;
+import farearth.landsat.ldpc.decode.LdpcDecodeBuffer;
 import farearth.landsat.ldpc.decode.LdpcDecoder;
-import farearth.landsat.ldpc.decode.ThreadedLdpcDecoder;
+import farearth.landsat.ldpc.decode.PipelinedLdpcDecoder;
 import farearth.landsat.util.BatchUtils;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Decodes LDPC frames on a dedicated decoder pool and passes the decoded
+ * frames, in their original order, to the next frame synchronizer. Frames
+ * that cannot be decoded, and frames lost to a damaged ASM, are reported to
+ * it as lost data so that it can keep or search its phase.
  *
  * @author anton
  */
 public class Landsat8LdpcFrameSynchronizer extends AbstractFrameSynchronizer {
 
-    private static final int BATCH_SIZE = 100;
-    private final boolean derandomize;
+    private static final Logger LOG = LoggerFactory.getLogger(Landsat8LdpcFrameSynchronizer.class);
+    /**
+     * Batches that may be in flight per decoder thread, enough to keep the
+     * pool busy while a slow batch holds back the ones behind it.
+     */
+    private static final int BATCHES_IN_FLIGHT_PER_THREAD = 4;
     private final FrameSynchronizer nextFrameSync;
-    private final ThreadedLdpcDecoder ldpcDecoder;
-    private final List<byte[]> cache = new ArrayList<>();
+    private final PipelinedLdpcDecoder pipeline;
+    private final PipelinedLdpcDecoder.ResultHandler emitter = this::emit;
+    private long[] gaps = new long[64]; // ring of the frames that follow lost frames, ascending
+    private int gapHead = 0;
+    private int gapCount = 0;
+    private long submitted = 0;
+    private long emitted = 0;
 
     public Landsat8LdpcFrameSynchronizer(LdpcDecoder ldpcDecoder, boolean derandomize, FrameSynchronizer nextFrameSync) {
+        this(ldpcDecoder, derandomize, nextFrameSync, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Landsat8LdpcFrameSynchronizer(LdpcDecoder ldpcDecoder, boolean derandomize, FrameSynchronizer nextFrameSync, int threads) {
+        this(ldpcDecoder, derandomize, nextFrameSync, threads, false);
+    }
+
+    /**
+     * @param ldpcDecoder
+     * @param derandomize
+     * @param nextFrameSync
+     * @param threads
+     * @param shedLoad true for a live feed that must not fall behind, hard
+     * frames are then given less effort as the decoder backlog grows (see
+     * {@link LdpcDecodeBudget#forLiveFeed(int, int)})
+     */
+    public Landsat8LdpcFrameSynchronizer(LdpcDecoder ldpcDecoder, boolean derandomize, FrameSynchronizer nextFrameSync, int threads, boolean shedLoad) {
+        this(ldpcDecoder, null, derandomize, nextFrameSync, threads, shedLoad);
+    }
+
+    /**
+     * @param ldpcDecoder
+     * @param fallbackDecoder decodes the frames that ldpcDecoder cannot in
+     * the background, null for none
+     * @param derandomize
+     * @param nextFrameSync
+     * @param threads
+     * @param shedLoad see
+     * {@link #Landsat8LdpcFrameSynchronizer(LdpcDecoder, boolean, FrameSynchronizer, int, boolean)}
+     */
+    public Landsat8LdpcFrameSynchronizer(LdpcDecoder ldpcDecoder, LdpcDecoder fallbackDecoder, boolean derandomize, FrameSynchronizer nextFrameSync, int threads, boolean shedLoad) {
         super(Landsat8LdpcConstants.ASM, ldpcDecoder.getFrameSizes().getEncodedByteCount());
-        this.derandomize = derandomize;
         this.nextFrameSync = nextFrameSync;
-        this.ldpcDecoder = new ThreadedLdpcDecoder(ldpcDecoder);
+        int maxInFlight = threads * BATCHES_IN_FLIGHT_PER_THREAD;
+        LdpcDecodeBudget budget = shedLoad
+                ? LdpcDecodeBudget.forLiveFeed(maxInFlight, ldpcDecoder.getMaxErrorsToFix())
+                : LdpcDecodeBudget.fullEffort(fallbackDecoder == null ? 0 : LdpcBitSlicedChecks.BATCH_SIZE);
+        this.pipeline = new PipelinedLdpcDecoder(ldpcDecoder, fallbackDecoder, derandomize, threads,
+                LdpcBitSlicedChecks.BATCH_SIZE, maxInFlight, budget);
     }
 
     @Override
     protected void onAsmError() {
+        // the frame is dropped and the scan may skip more, which only shows once the frames before it are emitted
+        if (gapCount == 0 || gaps[(gapHead + gapCount - 1) & (gaps.length - 1)] != submitted) {
+            if (gapCount == gaps.length) {
+                // unroll the ring into a larger one
+                long[] grown = Arrays.copyOfRange(gaps, gapHead, gapHead + gaps.length * 2);
+                System.arraycopy(gaps, 0, grown, gaps.length - gapHead, gapHead);
+                gaps = grown;
+                gapHead = 0;
+            }
+            gaps[(gapHead + gapCount) & (gaps.length - 1)] = submitted;
+            gapCount++;
+        }
     }
 
     @Override
     protected void processFrame(ByteBuffer buffer) throws IOException {
-        byte[] bytes = new byte[getContentSize()];
-        buffer.get(bytes);
-        cache.add(bytes);
-        if (cache.size() >= BATCH_SIZE) {
-            processCache();
-        }
+        submitted++;
+        pipeline.submit(buffer, emitter);
     }
 
-    private void processCache() throws IOException {
-        List<LdpcDecodeResult> results = ldpcDecoder.decode(cache, derandomize);
-        cache.clear();
-
-        for (LdpcDecodeResult result : results) {
-            if (result.isSuccess()) {
-                result.getErrorBitPositions().size();
-                nextFrameSync.process(ByteBuffer.wrap(result.getDecodedBytes().get()));
-            }
+    private void emit(LdpcDecodeBuffer result) throws IOException {
+        if (gapCount > 0 && gaps[gapHead] == emitted) {
+            gapHead = (gapHead + 1) & (gaps.length - 1);
+            gapCount--;
+            nextFrameSync.dataLost(-1);
+        }
+        emitted++;
+        if (result.isSuccess()) {
+            nextFrameSync.process(ByteBuffer.wrap(result.getDecodedBytes()));
+        } else {
+            nextFrameSync.dataLost(result.getDecodedBytes().length);
         }
     }
 
@@ -63,7 +124,11 @@ public class Landsat8LdpcFrameSynchronizer extends AbstractFrameSynchronizer {
     public void close() throws IOException {
         try {
             BatchUtils.doAndDontStopOnErrors(
-                    () -> processCache(), // process last frames in cache
+                    () -> pipeline.flush(emitter), // process frames still in flight
+                    () -> {
+                        LOG.info("LDPC decoder: {}", pipeline);
+                        pipeline.close();
+                    },
                     () -> nextFrameSync.close()
             );
         } catch (Exception ex) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.ldpc.Landsat8LdpcConstants;
+import farearth.landsat.ldpc.decode.LdpcDecodeBuffer;
+import farearth.landsat.ldpc.decode.LdpcMinSumDecoder;
+import farearth.landsat.util.BatchUtils;
+import farearth.landsat.util.SequenceRandomizer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frame synchronizer for LDPC soft symbols, one signed byte per channel bit
+ * where a negative value is a 1 and the magnitude is the demodulator's
+ * confidence. Frames are found by the hard decisions of the ASM symbols, the
+ * frame symbols are derandomized by flipping their sign and decoded with
+ * min-sum before the decoded frames are passed to the next frame
+ * synchronizer. Once locked, a frame that decodes keeps the lock even when
+ * its ASM has too many bit errors, so the decoder doubles as the flywheel.
+ *
+ * @author anton
+ */
+public class Landsat8SoftLdpcFrameSynchronizer implements FrameSynchronizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Landsat8SoftLdpcFrameSynchronizer.class);
+    private static final int ASM_SYMBOLS = Integer.SIZE;
+    private static final int MAX_ASM_BIT_ERRORS = 3;
+    private final LdpcMinSumDecoder decoder;
+    private final FrameSynchronizer nextFrameSync;
+    private final boolean[] randomized; // [symbol] = PN sequence bit, null if not derandomizing
+    private final int frameSymbols;
+    private final ByteBuffer window;
+    private final byte[] frame;
+    private final LdpcDecodeBuffer decodeBuffer;
+    private boolean locked = false;
+    private long decoded = 0;
+    private long failed = 0;
+    private long iterations = 0;
+    private long lockLost = 0;
+
+    public Landsat8SoftLdpcFrameSynchronizer(LdpcMinSumDecoder decoder, boolean derandomize, FrameSynchronizer nextFrameSync) {
+        this.decoder = decoder;
+        this.nextFrameSync = nextFrameSync;
+        this.frameSymbols = decoder.getSoftFrameSize();
+        this.frame = new byte[frameSymbols];
+        this.decodeBuffer = decoder.createDecodeBuffer();
+        // room for two frames so a partial frame at the end of a window is never lost
+        this.window = ByteBuffer.allocate(2 * (ASM_SYMBOLS + frameSymbols));
+        if (derandomize) {
+            byte[] sequence = new byte[frameSymbols / 8];
+            SequenceRandomizer.encodeCcsdsInplace(sequence, 0, sequence.length);
+            randomized = new boolean[frameSymbols];
+            for (int i = 0; i < frameSymbols; i++) {
+                randomized[i] = (sequence[i >>> 3] & (0x80 >>> (i & 7))) != 0;
+            }
+        } else {
+            randomized = null;
+        }
+    }
+
+    @Override
+    public void process(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = Math.min(buffer.remaining(), window.remaining());
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + count);
+            window.put(slice);
+            buffer.position(buffer.position() + count);
+            window.flip();
+            processFrames();
+            window.compact();
+        }
+    }
+
+    private void processFrames() throws IOException {
+        int period = ASM_SYMBOLS + frameSymbols;
+        int position = window.position();
+        int last = window.limit() - period; // last position with a complete frame
+        while (position <= last) {
+            boolean asm = getAsmErrors(position) <= MAX_ASM_BIT_ERRORS;
+            if (!locked && !asm) {
+                position++;
+            } else if (decodeFrame(position + ASM_SYMBOLS)) {
+                // a frame that decodes confirms the position even if its ASM is damaged
+                locked = true;
+                position += period;
+            } else if (locked && asm) {
+                failed++; // too noisy to decode, but still in step
+                nextFrameSync.dataLost(decodeBuffer.getDecodedBytes().length);
+                position += period;
+            } else {
+                if (locked) {
+                    lockLost++;
+                    nextFrameSync.dataLost(-1);
+                }
+                locked = false;
+                position++;
+            }
+        }
+        window.position(Math.min(position, window.limit()));
+    }
+
+    private int getAsmErrors(int position) {
+        int errors = 0;
+        for (int i = 0; i < ASM_SYMBOLS && errors <= MAX_ASM_BIT_ERRORS; i++) {
+            int expected = (Landsat8LdpcConstants.ASM >>> (ASM_SYMBOLS - 1 - i)) & 1;
+            int bit = window.get(position + i) < 0 ? 1 : 0;
+            errors += expected ^ bit;
+        }
+        return errors;
+    }
+
+    private boolean decodeFrame(int position) throws IOException {
+        ByteBuffer symbols = window.duplicate();
+        symbols.position(position);
+        symbols.get(frame, 0, frameSymbols);
+        if (randomized != null) {
+            for (int i = 0; i < frameSymbols; i++) {
+                if (randomized[i]) {
+                    frame[i] = frame[i] == Byte.MIN_VALUE ? Byte.MAX_VALUE : (byte) -frame[i];
+                }
+            }
+        }
+        if (!decoder.decode(frame, 0, decodeBuffer)) {
+            return false;
+        }
+        decoded++;
+        iterations += decodeBuffer.getDecodingLoops();
+        nextFrameSync.process(ByteBuffer.wrap(decodeBuffer.getDecodedBytes()));
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            BatchUtils.doAndDontStopOnErrors(
+                    () -> LOG.info("Soft LDPC decoder: {} frames decoded, {} failed, {} mean iterations, lock lost {} times",
+                            decoded, failed, decoded == 0 ? 0 : String.format("%.2f", iterations / (double) decoded), lockLost),
+                    () -> nextFrameSync.close()
+            );
+        } catch (Exception ex) {
+            throw new IOException("Error closing soft LDPC Frame Synchronizer", ex);
+        }
+    }
+}
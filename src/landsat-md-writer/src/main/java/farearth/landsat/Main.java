@@ -5,9 +5,6 @@
 package farearth.landsat;
 
 import java.io.File;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.StandardOpenOption;
 import java.util.Optional;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,18 +27,29 @@ public class Main {
             params.getRealtimeOutput().ifPresent(dir -> builder.writeRealtimeData(dir, params.isQueued()));
             params.getPlaybackOutput().ifPresent(dir -> builder.writePlaybackData(dir, params.isQueued()));
             params.getSsohOutput().ifPresent(dir -> builder.writeStateOfHealthData(dir, params.isQueued()));
-            if (params.isDecodeLdpc()) {
-                builder.processLdpc(params.isDeRandomize(), params.isDetectErrors(), params.getLdpsMaxErrorsToFix().orElse(60));
+            builder.parallelVirtualChannels(params.isParallelVirtualChannels());
+            builder.ldpcCaduResync(params.isLdpcCaduResync());
+            builder.ldpcCaduAsmCheck(!params.isSkipLdpcCaduAsmCheck());
+            if (params.isSoftLdpc()) {
+                builder.processSoftLdpc(params.isDeRandomize());
+            } else if (params.isDecodeLdpc()) {
+                builder.processLdpc(params.isDeRandomize(), params.isDetectErrors(), params.getLdpsMaxErrorsToFix().orElse(FrameSyncBuilder.DEFAULT_LDPC_MAX_ERRORS));
+                params.getLdpcThreads().ifPresent(builder::ldpcThreads);
+                builder.ldpcShedLoad(params.isLdpcShedLoad());
+                if (params.isLdpcFallback()) {
+                    builder.ldpcFallback();
+                }
             }
 
-            try (FrameSynchronizer frameSynchronizer = builder.build()) {
-                ByteBuffer buffer = ByteBuffer.allocate(4096);
-                try (FileChannel channel = FileChannel.open(params.getInput().toPath(), StandardOpenOption.READ)) {
-                    while (channel.read(buffer) >= 0) {
-                        buffer.flip();
-                        frameSynchronizer.process(buffer);
-                        buffer.clear();
-                    }
+            Optional<Integer> splitThreads = params.getSplitThreads();
+            if (splitThreads.isPresent()) {
+                builder.buildSplit(splitThreads.get()).readAll(params.getInput());
+            } else {
+                ChannelProcessor processor = new ChannelProcessor(builder.build());
+                if (params.isMappedInput()) {
+                    processor.readMapped(params.getInput());
+                } else {
+                    processor.readAll(params.getInput());
                 }
             }
         } else {
@@ -56,6 +64,12 @@ public class Main {
 
         boolean isQueued();
 
+        boolean isMappedInput();
+
+        Optional<Integer> getSplitThreads();
+
+        boolean isParallelVirtualChannels();
+
         Optional<File> getRealtimeOutput();
 
         Optional<File> getPlaybackOutput();
@@ -69,6 +83,18 @@ public class Main {
         boolean isDetectErrors();
 
         Optional<Integer> getLdpsMaxErrorsToFix();
+
+        Optional<Integer> getLdpcThreads();
+
+        boolean isSoftLdpc();
+
+        boolean isLdpcShedLoad();
+
+        boolean isLdpcFallback();
+
+        boolean isLdpcCaduResync();
+
+        boolean isSkipLdpcCaduAsmCheck();
     }
 
     static Parameters parse(String[] args) {
@@ -79,6 +105,9 @@ public class Main {
             CommandLine cmd = parser.parse(options, args);
 
             boolean queued = cmd.hasOption("q");
+            boolean mappedInput = cmd.hasOption("M");
+            boolean parallelVirtualChannels = cmd.hasOption("V");
+            Optional<Integer> splitThreads = Optional.ofNullable(cmd.getOptionValue("split-threads")).map(Integer::valueOf);
             File input = new File(cmd.getOptionValue("input-file"));
             if (!input.isFile()) {
                 throw new IllegalArgumentException(String.format("The input file '%s' is invalid", input.getAbsolutePath()));
@@ -107,6 +136,12 @@ public class Main {
             boolean derandomizeLdpcFrame = cmd.hasOption("d");
             boolean detectErrors = cmd.hasOption("c");
             Optional<Integer> maxLdpcErrors = Optional.ofNullable(cmd.getOptionValue("max-ldpc-errors")).map(Integer::valueOf);
+            Optional<Integer> ldpcThreads = Optional.ofNullable(cmd.getOptionValue("ldpc-threads")).map(Integer::valueOf);
+            boolean softLdpc = cmd.hasOption("L");
+            boolean ldpcShedLoad = cmd.hasOption("B");
+            boolean ldpcFallback = cmd.hasOption("A");
+            boolean ldpcCaduResync = cmd.hasOption("R");
+            boolean skipLdpcCaduAsmCheck = cmd.hasOption("U");
 
             return new Parameters() {
                 @Override
@@ -119,6 +154,21 @@ public class Main {
                     return queued;
                 }
 
+                @Override
+                public boolean isMappedInput() {
+                    return mappedInput;
+                }
+
+                @Override
+                public Optional<Integer> getSplitThreads() {
+                    return splitThreads;
+                }
+
+                @Override
+                public boolean isParallelVirtualChannels() {
+                    return parallelVirtualChannels;
+                }
+
                 @Override
                 public Optional<File> getRealtimeOutput() {
                     return realtimeOutput;
@@ -154,6 +204,36 @@ public class Main {
                     return maxLdpcErrors;
                 }
 
+                @Override
+                public Optional<Integer> getLdpcThreads() {
+                    return ldpcThreads;
+                }
+
+                @Override
+                public boolean isSoftLdpc() {
+                    return softLdpc;
+                }
+
+                @Override
+                public boolean isLdpcShedLoad() {
+                    return ldpcShedLoad;
+                }
+
+                @Override
+                public boolean isLdpcFallback() {
+                    return ldpcFallback;
+                }
+
+                @Override
+                public boolean isLdpcCaduResync() {
+                    return ldpcCaduResync;
+                }
+
+                @Override
+                public boolean isSkipLdpcCaduAsmCheck() {
+                    return skipLdpcCaduAsmCheck;
+                }
+
             };
         } catch (ParseException e) {
             HelpFormatter formatter = new HelpFormatter();
@@ -174,6 +254,15 @@ public class Main {
                 .add("d", "derandomize-ldpc-frame", false, "Optional. Enable LDPC frame derandomization", false)
                 .add("c", "ldpc-correct-errors", false, "Optional. Correct LDPC errors", false)
                 .add("m", "max-ldpc-errors", true, "Optional. Max LDPC errors to fix (defaults to 60)", false)
+                .add("T", "ldpc-threads", true, "Optional. Number of LDPC decoder threads (defaults to the number of processors)", false)
+                .add("A", "ldpc-accurate-fallback", false, "Optional. Retry LDPC frames that fail to correct with the slower accurate decoder in the background, which fixes up to 200 errors", false)
+                .add("B", "ldpc-shed-load", false, "Optional. Lower the LDPC error correction effort and retry hard frames in the background when the decoder falls behind a live feed", false)
+                .add("R", "ldpc-cadu-resync", false, "Optional. Scan the decoded LDPC frames for CADUs instead of cutting them at fixed offsets", false)
+                .add("U", "ldpc-skip-cadu-asm-check", false, "Optional. Do not check the ASM of the CADUs cut from the decoded LDPC frames", false)
+                .add("L", "ldpc-soft", false, "Optional. Input file holds LDPC soft symbols, one signed byte per bit (implies LDPC decoding)", false)
+                .add("M", "mapped-input", false, "Optional. Read the input file through large memory-mapped windows", false)
+                .add("S", "split-threads", true, "Optional. Split the input file into CADU aligned ranges and process them on this many threads (not supported with LDPC or -V)", false)
+                .add("V", "vc-threads", false, "Optional. Parse and write every virtual channel on its own thread", false)
                 .build();
     }
 
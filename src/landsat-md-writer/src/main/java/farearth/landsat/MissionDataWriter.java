@@ -5,6 +5,8 @@
 package farearth.landsat;
 
 import farearth.landsat.util.Slice;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -32,6 +34,8 @@ public class MissionDataWriter extends FileHandler.Abstract {
     private final String _leadingPartialPrefix;
     private final SimpleDateFormat _suffixFormat;
     private File _file;
+    private DataOutputStream _gaps;
+    private int _gapCount;
     private boolean _deleteTrailingPartials = false;
     private boolean _writeProperties = true;
 
@@ -69,6 +73,7 @@ public class MissionDataWriter extends FileHandler.Abstract {
             LOG.info("Starting file {} for {}", _file, _leadingPartialPrefix);
         }
         _out = Channels.newChannel(new FileOutputStream(_file));
+        _gapCount = 0;
         if (isWriteProperties()) {
             Properties properties = new Properties();
             properties.putAll(getDefaultProperties());
@@ -121,9 +126,12 @@ public class MissionDataWriter extends FileHandler.Abstract {
                 properties.put("trailing-partial", String.valueOf(isTrailingPartial));
                 if (!isTrailingPartial) {
                     properties.put("cfdp-checksum", String.valueOf(checksum));
+                    properties.put("cfdp-checksum-computed", String.valueOf(getComputedChecksum()));
+                    properties.put("cfdp-checksum-valid", String.valueOf(checksum == getComputedChecksum()));
                     properties.put("cfdp-filesize", String.valueOf(filesize));
                     properties.put("bytes-lost", String.valueOf(lostBytes));
                 }
+                properties.put("sequence-gaps", String.valueOf(_gapCount));
                 writeProperties(properties, _file);
             }
         }
@@ -133,12 +141,39 @@ public class MissionDataWriter extends FileHandler.Abstract {
             LOG.info("Closing file {} for {} with {} lost bytes{}", _file, _leadingPartialPrefix, lostBytes, caduCount);
         }
         _out.close();
+        if (_gaps != null) {
+            _gaps.close();
+            _gaps = null;
+        }
         if (isTrailingPartial && isDeleteTrailingPartials()) {
             LOG.info("Deleting trailing partial {}", _file);
             _file.delete();
+            getGapsFile(_file).delete();
         }
     }
 
+    /**
+     * Appends an entry to the gap ledger of the file, [file].gaps, which is
+     * only created once the file has a gap. Every entry is 14 bytes,
+     * big-endian: the APID number, the last and the next sequence count as
+     * shorts and the file offset at which the missing data starts as a long.
+     */
+    @Override
+    protected void writeSequenceGap(APID apid, int lastCount, int nextCount, long offset) throws IOException {
+        if (_gaps == null) {
+            _gaps = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getGapsFile(_file))));
+        }
+        _gaps.writeShort(apid.getValue());
+        _gaps.writeShort(lastCount);
+        _gaps.writeShort(nextCount);
+        _gaps.writeLong(offset);
+        _gapCount++;
+    }
+
+    private File getGapsFile(File forFile) {
+        return new File(_outputFolder, forFile.getName() + ".gaps");
+    }
+
     @Override
     protected void writeData(Slice data, long offset) throws IOException {
         data.read(_out);
@@ -4,14 +4,22 @@
  */
 package farearth.landsat;
 
+import farearth.landsat.util.BufferPool;
+import farearth.landsat.util.PooledBuffer;
 import farearth.landsat.util.Slice;
 import farearth.landsat.util.Slices;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Reassembles the space packets that span CADUs. By default the CADU
+ * fragments of a packet are retained and chained into one slice, so the
+ * packet bytes are never copied. For consumers that need the packet in one
+ * contiguous buffer the fragments are copied into a pooled buffer instead,
+ * which returns to the pool once the consumer releases the packet.
  *
  * @author Chris
  */
@@ -19,20 +27,33 @@ public class MpduPayloadAssembler implements HeaderAwarePayloadHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(MpduHandler.class);
     private static final int BUFFER_SIZE = (int) Math.pow(2, 16) + CaduHeader.CADU_SIZE;
+    private static final int POOLED_BUFFERS = 4;
     private final PayloadHandler _handler;
-    private ByteBuffer _buffer;
+    private final boolean _chained;
+    private final List<Slice> _fragments = new ArrayList<>();
+    private final BufferPool _pool;
+    private PooledBuffer _buffer;
+    private int _length;
 
     public MpduPayloadAssembler(PayloadHandler handler) {
+        this(handler, true);
+    }
+
+    /**
+     * @param handler
+     * @param chained false to hand every packet to the handler as one
+     * contiguous buffer
+     */
+    public MpduPayloadAssembler(PayloadHandler handler, boolean chained) {
         _handler = handler;
-        reset();
+        _chained = chained;
+        _pool = chained ? null : new BufferPool(BUFFER_SIZE, POOLED_BUFFERS);
     }
 
     @Override
     public void headerPacket(Slice slice) throws IOException {
         if (!isEmpty()) {
-            Slice compound = assemble();
-            _handler.payload(compound);
-            reset();
+            emit();
         }
         add(slice);
         checkHeader(slice);
@@ -68,34 +89,80 @@ public class MpduPayloadAssembler implements HeaderAwarePayloadHandler {
     public void close() throws IOException {
         try {
             if (!isEmpty()) {
-                Slice compound = assemble();
-                _handler.payload(compound);
+                emit();
             }
         } finally {
+            reset();
             _handler.close();
         }
     }
 
     private void add(Slice slice) throws IOException {
-        int pos = slice.position();
-        int read = slice.read(_buffer);
-        if (slice.hasRemaining()) {
-            throw new IOException(String.format("didnt read complete slice: read=%d, slice remaining=%d", read, slice.remaining()));
+        int remaining = slice.remaining();
+        if (_length + remaining > BUFFER_SIZE) {
+            throw new IOException(String.format("didnt read complete slice: read=%d, slice remaining=%d", BUFFER_SIZE - _length, remaining));
+        }
+        if (remaining == 0) {
+            return;
+        }
+        if (_chained) {
+            // the fragment shares the CADU buffer, which must outlive the call that handed it over
+            _fragments.add(slice.extract(remaining).retain());
+        } else {
+            if (_buffer == null) {
+                _buffer = _pool.acquire();
+            }
+            int pos = slice.position();
+            slice.read(_buffer.getBuffer());
+            slice.position(pos);
         }
-        slice.position(pos);
+        _length += remaining;
     }
 
-    private Slice assemble() {
-        _buffer.flip();
-        return Slices.create(_buffer);
+    /**
+     * Hands the assembled packet to the handler, which retains it if it holds
+     * on to it after returning.
+     */
+    private void emit() throws IOException {
+        Slice compound;
+        if (_chained) {
+            compound = Slices.chain(_fragments.toArray(new Slice[_fragments.size()]));
+            _fragments.clear();
+        } else {
+            _buffer.getBuffer().flip();
+            compound = Slices.create(_buffer);
+            _buffer = null;
+        }
+        _length = 0;
+        try {
+            _handler.payload(compound);
+        } finally {
+            compound.release();
+        }
     }
 
     private boolean isEmpty() {
-        return _buffer.position() == 0;
+        return _length == 0;
+    }
+
+    /**
+     * @return true if a space packet is partially assembled and waiting for
+     * the next header to complete it
+     */
+    boolean isAssembling() {
+        return !isEmpty();
     }
 
     private void reset() {
-        _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (Slice fragment : _fragments) {
+            fragment.release();
+        }
+        _fragments.clear();
+        if (_buffer != null) {
+            _buffer.release();
+            _buffer = null;
+        }
+        _length = 0;
     }
 
 }
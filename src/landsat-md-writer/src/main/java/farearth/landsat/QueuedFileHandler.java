@@ -22,12 +22,14 @@ abstract class QueuedFileHandler implements FileHandler {
     private final Logger LOG = LoggerFactory.getLogger(QueuedFileHandler.class);
 
     private final SmartQueue<Message> _queue;
+    private final SmartQueueMode _mode;
 
     protected QueuedFileHandler(FileHandler delegate, int maxSize, SmartQueueMode mode) {
         this(delegate, maxSize, mode, "Queued File Handler");
     }
 
     protected QueuedFileHandler(FileHandler delegate, int maxSize, SmartQueueMode mode, String name) {
+        _mode = mode;
         LOG.info("Creating queued handler '{}' with max size {} and mode {}.", name, maxSize, mode);
         _queue = new SmartQueue<>(maxSize, mode, new MessageHandler(delegate), new SmartQueueEventHandler<Message>() {
             @Override
@@ -59,7 +61,16 @@ abstract class QueuedFileHandler implements FileHandler {
 
     @Override
     public void fileData(Slice data, APID apid, int length, long offset) throws IOException {
-        _queue.push(new DataMessage(data, apid, length, offset));
+        // the data is handled after this returns
+        data.retain();
+        if (!_queue.push(new DataMessage(data, apid, length, offset)) && _mode == SmartQueueMode.Drop) {
+            data.release();
+        }
+    }
+
+    @Override
+    public void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+        _queue.push(new SequenceGapMessage(apid, lastCount, nextCount));
     }
 
     @Override
@@ -114,7 +125,14 @@ abstract class QueuedFileHandler implements FileHandler {
                 _delegate.endFile(message.getFilesize(), message.getChecksum());
             } else if (item instanceof DataMessage) {
                 DataMessage message = (DataMessage) item;
-                _delegate.fileData(message.getData(), message.getApid(), message.getLength(), message.getOffset());
+                try {
+                    _delegate.fileData(message.getData(), message.getApid(), message.getLength(), message.getOffset());
+                } finally {
+                    message.getData().release();
+                }
+            } else if (item instanceof SequenceGapMessage) {
+                SequenceGapMessage message = (SequenceGapMessage) item;
+                _delegate.sequenceGap(message.getApid(), message.getLastCount(), message.getNextCount());
             } else if (item instanceof DataLostMessage) {
                 _delegate.dataLost();
             }
@@ -202,6 +220,32 @@ abstract class QueuedFileHandler implements FileHandler {
 
     }
 
+    private static class SequenceGapMessage extends Message {
+
+        private final APID _apid;
+        private final int _lastCount;
+        private final int _nextCount;
+
+        public SequenceGapMessage(APID apid, int lastCount, int nextCount) {
+            _apid = apid;
+            _lastCount = lastCount;
+            _nextCount = nextCount;
+        }
+
+        public APID getApid() {
+            return _apid;
+        }
+
+        public int getLastCount() {
+            return _lastCount;
+        }
+
+        public int getNextCount() {
+            return _nextCount;
+        }
+
+    }
+
     private static class DataLostMessage extends Message {
 
     }
@@ -22,12 +22,14 @@ abstract class QueuedPayloadHandler implements PayloadHandler {
     private final Logger LOG = LoggerFactory.getLogger(QueuedPayloadHandler.class);
 
     private final SmartQueue<Slice> _queue;
+    private final SmartQueueMode _mode;
 
     protected QueuedPayloadHandler(PayloadHandler delegate, int maxSize, SmartQueueMode mode) {
         this(delegate, maxSize, mode, "Queued Payload Handler");
     }
 
     protected QueuedPayloadHandler(PayloadHandler delegate, int maxSize, SmartQueueMode mode, String name) {
+        _mode = mode;
         _queue = new SmartQueue<>(maxSize, mode, new MessageHandler(delegate), new SmartQueueEventHandler<Slice>() {
             @Override
             public void onErrorOnItem(Slice item, Throwable t) {
@@ -48,7 +50,11 @@ abstract class QueuedPayloadHandler implements PayloadHandler {
 
     @Override
     public void payload(Slice e) throws IOException {
-        _queue.push(e);
+        // the slice is handled after this returns
+        e.retain();
+        if (!_queue.push(e) && _mode == SmartQueueMode.Drop) {
+            e.release();
+        }
     }
 
     @Override
@@ -98,7 +104,11 @@ abstract class QueuedPayloadHandler implements PayloadHandler {
             if (item == null) {
                 _delegate.dataLost();
             } else {
-                _delegate.payload(item);
+                try {
+                    _delegate.payload(item);
+                } finally {
+                    item.release();
+                }
             }
         }
 
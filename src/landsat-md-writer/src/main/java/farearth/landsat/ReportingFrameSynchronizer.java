@@ -5,7 +5,9 @@
 package farearth.landsat;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Properties;
 import org.slf4j.Logger;
@@ -22,6 +24,7 @@ class ReportingFrameSynchronizer implements FrameSynchronizer {
     private final FrameSynchronizer _delegate;
     private File _outputProperties;
     private Properties _additionalProperties;
+    private SyncStatistics _statistics;
 
     public ReportingFrameSynchronizer(FrameSynchronizer delegate) {
         _delegate = delegate;
@@ -32,6 +35,11 @@ class ReportingFrameSynchronizer implements FrameSynchronizer {
         _delegate.process(buffer);
     }
 
+    @Override
+    public void processWindow(ByteBuffer buffer) throws IOException {
+        _delegate.processWindow(buffer);
+    }
+
     @Override
     public void close() throws IOException {
         try {
@@ -56,7 +64,30 @@ class ReportingFrameSynchronizer implements FrameSynchronizer {
     }
 
     private void writeProperties() throws IOException {
+        writeProperties(_outputProperties, _additionalProperties, _statistics);
+    }
 
+    /**
+     * Writes the pass properties: the additional properties followed by the
+     * CADU synchronizer statistics, either of which may be null.
+     *
+     * @param file
+     * @param additionalProperties
+     * @param statistics
+     * @throws IOException
+     */
+    static void writeProperties(File file, Properties additionalProperties, SyncStatistics statistics) throws IOException {
+        Properties properties = new Properties();
+        if (additionalProperties != null) {
+            properties.putAll(additionalProperties);
+        }
+        if (statistics != null) {
+            statistics.updateProperties(properties);
+        }
+        LOG.debug("Writing pass properties to {}", file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, null);
+        }
     }
 
     public Properties getAdditionalProperties() {
@@ -67,4 +98,12 @@ class ReportingFrameSynchronizer implements FrameSynchronizer {
         _additionalProperties = additionalProperties;
     }
 
+    public SyncStatistics getStatistics() {
+        return _statistics;
+    }
+
+    public void setStatistics(SyncStatistics statistics) {
+        _statistics = statistics;
+    }
+
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.queue.SpscRing;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the delegate on its own worker thread, fed by the frame synchronizer
+ * through a bounded single producer, single consumer ring. The producer blocks
+ * while the ring is full and the time spent blocked is reported as stall time.
+ *
+ * @author Chris
+ */
+class RingPayloadHandler implements PayloadHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingPayloadHandler.class);
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final Object DATA_LOST = new Object();
+    private static final Object END = new Object();
+
+    private final PayloadHandler _delegate;
+    private final SpscRing<Object> _ring;
+    private final String _name;
+    private final Thread _worker;
+    private volatile boolean _consumerWaiting = false;
+    private volatile boolean _producerWaiting = false;
+    private volatile Throwable _error;
+    private Thread _producer;
+    private boolean _closed = false;
+    // producer side statistics
+    private long _items;
+    private long _depthSum;
+    private int _maxDepth;
+    private long _stalls;
+    private long _stallNanos;
+    // consumer side statistics
+    private volatile long _idleNanos;
+
+    public RingPayloadHandler(PayloadHandler delegate, int capacity, String name) {
+        _delegate = delegate;
+        _ring = new SpscRing<>(capacity);
+        _name = name;
+        _worker = new Thread(this::run, name);
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    @Override
+    public void payload(Slice e) throws IOException {
+        checkError();
+        e.retain();
+        put(e);
+    }
+
+    @Override
+    public void dataLost() {
+        if (_error == null) {
+            put(DATA_LOST);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!_closed) {
+            _closed = true;
+            put(END);
+            try {
+                _worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing " + _name, ex);
+            }
+            LOG.info(getStatistics());
+            checkError();
+        }
+    }
+
+    public String getStatistics() {
+        return String.format("%s: %d items, mean depth %.1f, max depth %d/%d, producer stalled %d times for %dms, worker idle %dms",
+                _name, _items, _items > 0 ? (double) _depthSum / _items : 0.0, _maxDepth, _ring.capacity(),
+                _stalls, TimeUnit.NANOSECONDS.toMillis(_stallNanos), TimeUnit.NANOSECONDS.toMillis(_idleNanos));
+    }
+
+    private void put(Object item) {
+        if (_producer == null) {
+            _producer = Thread.currentThread();
+        }
+        if (!_ring.offer(item)) {
+            long start = System.nanoTime();
+            _stalls++;
+            _producerWaiting = true;
+            while (!_ring.offer(item)) {
+                if (!_worker.isAlive()) {
+                    throw new IllegalStateException(_name + " worker has stopped");
+                }
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            _producerWaiting = false;
+            _stallNanos += System.nanoTime() - start;
+        }
+        int depth = _ring.size();
+        _items++;
+        _depthSum += depth;
+        if (depth > _maxDepth) {
+            _maxDepth = depth;
+        }
+        if (_consumerWaiting) {
+            LockSupport.unpark(_worker);
+        }
+    }
+
+    private void run() {
+        long idleNanos = 0;
+        try {
+            while (true) {
+                Object item = _ring.poll();
+                if (item == null) {
+                    long start = System.nanoTime();
+                    _consumerWaiting = true;
+                    // check again, the producer may have missed the flag
+                    while ((item = _ring.poll()) == null) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    _consumerWaiting = false;
+                    idleNanos += System.nanoTime() - start;
+                }
+                if (item == END) {
+                    break;
+                }
+                handle(item);
+                if (_producerWaiting) {
+                    LockSupport.unpark(_producer);
+                }
+            }
+        } finally {
+            _idleNanos = idleNanos;
+            try {
+                _delegate.close();
+            } catch (IOException | RuntimeException ex) {
+                setError(ex);
+            }
+        }
+    }
+
+    private void handle(Object item) {
+        if (item == DATA_LOST) {
+            if (_error == null) {
+                _delegate.dataLost();
+            }
+        } else {
+            Slice slice = (Slice) item;
+            try {
+                if (_error == null) {
+                    _delegate.payload(slice);
+                }
+            } catch (IOException | RuntimeException ex) {
+                setError(ex);
+            } finally {
+                slice.release();
+            }
+        }
+    }
+
+    private void setError(Throwable ex) {
+        if (_error == null) {
+            LOG.error(String.format("Error in %s: %s", _name, ex.getMessage()), ex);
+            _error = ex;
+        }
+    }
+
+    private void checkError() throws IOException {
+        Throwable error = _error;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException("Error in " + _name, error);
+        }
+    }
+
+}
@@ -7,10 +7,14 @@ package farearth.landsat;
 import farearth.landsat.util.Slice;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Splits space packets and hands them to the handler by APID. The sequence
+ * count of every APID is followed, a packet that does not continue it is
+ * preceded by a sequence gap.
  *
  * @author Chris
  */
@@ -18,7 +22,9 @@ public class SpacePacketHandler implements PayloadHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(SpacePacketHandler.class);
     private final ApidPayloadHandler _handler;
-    private final ApidFilter _filter;
+    private final ApidFilter.Mask _filter;
+    private final int[] _sequenceCounts = new int[APID.COUNT]; // [APID number] = last sequence count, -1 before the first packet
+    private long _sequenceGaps = 0;
 
     public SpacePacketHandler(ApidPayloadHandler handler) {
         this(handler, new ApidFilter.All());
@@ -26,7 +32,15 @@ public class SpacePacketHandler implements PayloadHandler {
 
     public SpacePacketHandler(ApidPayloadHandler handler, ApidFilter filter) {
         _handler = handler;
-        _filter = filter;
+        _filter = new ApidFilter.Mask(filter);
+        Arrays.fill(_sequenceCounts, -1);
+    }
+
+    /**
+     * @return the number of breaks in the sequence counts so far
+     */
+    public long getSequenceGaps() {
+        return _sequenceGaps;
     }
 
     @Override
@@ -40,12 +54,12 @@ public class SpacePacketHandler implements PayloadHandler {
                 if (extra == 0) {
                     //TODO we dont need to extract at this point
                     Slice payload = spacePacket.extract(dataLength);
-                    handleSpacePacket(apid, payload);
+                    handleSpacePacket(apid, value, payload);
                 } else if (extra < 0) {
                     LOG.debug("Invalid space packet header length");
                 } else {
                     Slice payload = spacePacket.extract(dataLength);
-                    handleSpacePacket(apid, payload);
+                    handleSpacePacket(apid, value, payload);
                     spacePacket.skip(dataLength);
                     payload(spacePacket);
                 }
@@ -57,9 +71,36 @@ public class SpacePacketHandler implements PayloadHandler {
         }
     }
 
-    private void handleSpacePacket(APID apid, Slice slice) throws IOException {
-        if (apid != APID.Fill && _filter.pass(apid)) {
-            _handler.payload(apid, slice);
+    /**
+     * Called for every packet, whether it passes the filter or not, before it
+     * is handled. Does nothing by default.
+     *
+     * @param apid
+     * @param lastCount the last sequence count of the APID, -1 before its
+     * first packet
+     * @param count the sequence count of the packet
+     * @throws IOException
+     */
+    protected void sequenceCount(APID apid, int lastCount, int count) throws IOException {
+    }
+
+    private void handleSpacePacket(APID apid, long header, Slice slice) throws IOException {
+        if (apid != APID.Fill) {
+            int apidNumber = SpacePacketHeader.parseApidNumber(header);
+            int count = SpacePacketHeader.parseSequenceCount(header);
+            int last = _sequenceCounts[apidNumber];
+            _sequenceCounts[apidNumber] = count;
+            sequenceCount(apid, last, count);
+            boolean gap = last >= 0 && !SpacePacketHeader.isNextSequenceCount(last, count);
+            if (gap) {
+                _sequenceGaps++;
+            }
+            if (_filter.pass(apidNumber)) {
+                if (gap) {
+                    _handler.sequenceGap(apid, last, count);
+                }
+                _handler.payload(apid, slice);
+            }
         }
     }
 
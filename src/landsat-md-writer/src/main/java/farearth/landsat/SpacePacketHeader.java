@@ -34,6 +34,14 @@ class SpacePacketHeader {
         return APID.forValue(parseApidNumber(headerData));
     }
 
+    public static int parseSequenceCount(long headerData) {
+        return (int) (headerData >>> 16 & 0x3FFF);
+    }
+
+    public static boolean isNextSequenceCount(int lastCount, int count) {
+        return count == ((lastCount + 1) & 0x3FFF);
+    }
+
     public static int parseDataLength(long headerData) {
         return (int) (headerData & 0xFFFF) + 1; //see CCSDS 133.0-B-1 Page 4-2, section 4.1.2
     }
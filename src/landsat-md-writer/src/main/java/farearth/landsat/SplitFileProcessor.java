@@ -0,0 +1,605 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.BatchUtils;
+import farearth.landsat.util.ByteSizeFormatter;
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.Slices;
+import farearth.landsat.util.ThreadUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a single recording on several threads by splitting it into byte
+ * ranges that start on a CADU boundary. Every range runs through its own frame
+ * synchronizer and packet stack, and everything the stacks produce is recorded
+ * and then replayed into the real file handlers in file order.
+ * <p>
+ * Space packets span CADUs, so a range keeps reading past its end until every
+ * VC has completed the space packet it was assembling, while the next range
+ * only produces output from the first space packet header of each VC. Gaps in
+ * the VC frame count and in the space packet sequence counts that straddle a
+ * boundary are detected while replaying.
+ *
+ * @author Chris
+ */
+public class SplitFileProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SplitFileProcessor.class);
+    private static final long DEFAULT_RANGE_SIZE = 32L * 1024 * 1024;
+    private static final long MIN_RANGE_SIZE = 1024 * 1024;
+    private static final int CONTINUATION_SIZE = 256 * 1024;
+    private static final int RECORDING_BLOCK_SIZE = 1024 * 1024;
+
+    private final Map<Integer, FileHandler> _fileHandlers;
+    private final Map<Integer, PayloadHandler> _rawHandlers;
+    private final SyncSettings _syncSettings;
+    private final int _threads;
+    private final Map<Integer, Long> _lastFrameCounts = new HashMap<>();
+    private final Map<Integer, int[]> _lastSequenceCounts = new HashMap<>(); // [APID number] of the ranges replayed so far
+    private SyncStatistics _statistics = new SyncStatistics();
+    private File _passPropertyFile;
+    private Properties _passProperties;
+    private long _rangeSize = DEFAULT_RANGE_SIZE;
+    private long _bytesRead;
+
+    SplitFileProcessor(Map<Integer, FileHandler> fileHandlers, Map<Integer, PayloadHandler> rawHandlers, SyncSettings syncSettings, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required: " + threads);
+        }
+        _fileHandlers = fileHandlers;
+        _rawHandlers = rawHandlers;
+        _syncSettings = syncSettings;
+        _threads = threads;
+    }
+
+    public void readAll(File file) throws IOException {
+        long start = System.nanoTime();
+        _bytesRead = 0;
+        _lastFrameCounts.clear();
+        _lastSequenceCounts.clear();
+        _statistics = new SyncStatistics();
+        for (Integer vc : _fileHandlers.keySet()) {
+            int[] counts = new int[APID.COUNT];
+            Arrays.fill(counts, -1);
+            _lastSequenceCounts.put(vc, counts);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(_threads, ThreadUtils.createThreadFactory("split-range-%d"));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Long> boundaries = findBoundaries(channel, size);
+            int rangeCount = boundaries.size() - 1;
+            LOG.debug("Processing {} ranges on {} threads", rangeCount, _threads);
+            // at most one finished range waits for replay per thread
+            Deque<Future<Range>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < rangeCount || !pending.isEmpty()) {
+                while (next < rangeCount && pending.size() <= _threads) {
+                    long from = boundaries.get(next);
+                    long to = boundaries.get(next + 1);
+                    boolean last = next == rangeCount - 1;
+                    pending.add(executor.submit(() -> processRange(channel, from, to, size, last)));
+                    next++;
+                }
+                replay(get(pending.poll()));
+            }
+            _bytesRead = size;
+        } finally {
+            executor.shutdownNow();
+            try {
+                closeHandlers();
+            } finally {
+                if (_passPropertyFile != null) {
+                    ReportingFrameSynchronizer.writeProperties(_passPropertyFile, _passProperties, _statistics);
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mbPerSecond = seconds > 0 ? _bytesRead / (1024.0 * 1024.0) / seconds : 0;
+        LOG.info(String.format("Processed %s in %.1fs (%.1f MB/s) on %d threads",
+                ByteSizeFormatter.format(_bytesRead), seconds, mbPerSecond, _threads));
+    }
+
+    private List<Long> findBoundaries(FileChannel channel, long size) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long nominal = _rangeSize;
+        while (nominal < size) {
+            long boundary = findCaduStart(channel, nominal, Math.min(nominal + _rangeSize, size), size);
+            if (boundary < 0) {
+                // no usable boundary, merge with the next range
+                nominal += _rangeSize;
+            } else {
+                boundaries.add(boundary);
+                nominal = boundary + _rangeSize;
+            }
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private static long findCaduStart(FileChannel channel, long from, long to, long size) throws IOException {
+        long end = Math.min(to + CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE, size);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, end - from);
+        int count = (int) (to - from);
+        for (int i = 0; i < count; i++) {
+            if (Landsat8FrameSynchronizer.isCaduStart(buffer, i)) {
+                return from + i;
+            }
+        }
+        return -1;
+    }
+
+    private Range processRange(FileChannel channel, long from, long to, long size, boolean last) throws IOException {
+        Range range = new Range();
+        Map<Integer, PayloadHandler> handlers = new HashMap<>();
+        for (Integer vc : _fileHandlers.keySet()) {
+            handlers.put(vc, range.createFileStack(vc, _lastSequenceCounts.get(vc)));
+        }
+        for (Integer vc : _rawHandlers.keySet()) {
+            handlers.put(vc, range.createRawRecorder(vc));
+        }
+        Landsat8FrameSynchronizer sync = new Landsat8FrameSynchronizer(handlers, _syncSettings);
+        range._statistics = sync.getStatistics();
+        try {
+            // include the ASM of the next range so that the last CADU can be confirmed
+            long position = Math.min(to + CaduHeader.ASM_SIZE, size);
+            sync.process(channel.map(FileChannel.MapMode.READ_ONLY, from, position - from));
+            if (!last) {
+                range.endReached();
+                while (!range.isSealed() && position < size) {
+                    long length = Math.min(CONTINUATION_SIZE, size - position);
+                    sync.process(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                    position += length;
+                }
+                LOG.debug("Range at {} read {} bytes past its end", from, position - to);
+            }
+        } finally {
+            sync.close();
+        }
+        return range;
+    }
+
+    private void replay(Range range) throws IOException {
+        _statistics.add(range._statistics);
+        for (Map.Entry<Integer, FileHandler> entry : _fileHandlers.entrySet()) {
+            int vc = entry.getKey();
+            FileHandler target = entry.getValue();
+            Long lastFrameCount = _lastFrameCounts.get(vc);
+            FrameCounter counter = range._frameCounters.get(vc);
+            if (lastFrameCount != null && counter.getFirst() >= 0
+                    && CaduHandler.getDrops(lastFrameCount, counter.getFirst()) > 0) {
+                target.dataLost();
+            }
+            if (counter.getLast() >= 0) {
+                _lastFrameCounts.put(vc, counter.getLast());
+            }
+            range._fileRecorders.get(vc).replay(target);
+            range._packetHandlers.get(vc).updateLastCounts(_lastSequenceCounts.get(vc));
+        }
+        for (Map.Entry<Integer, PayloadHandler> entry : _rawHandlers.entrySet()) {
+            range._rawRecorders.get(entry.getKey()).replay(entry.getValue());
+        }
+    }
+
+    private void closeHandlers() throws IOException {
+        List<AutoCloseable> handlers = new ArrayList<>();
+        handlers.addAll(_fileHandlers.values());
+        handlers.addAll(_rawHandlers.values());
+        try {
+            BatchUtils.closeAndDontStopOnErrors(handlers);
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static Range get(Future<Range> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a range", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to process range", cause);
+        }
+    }
+
+    public long getBytesRead() {
+        return _bytesRead;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    public long getRangeSize() {
+        return _rangeSize;
+    }
+
+    public void setRangeSize(long rangeSize) {
+        _rangeSize = Math.max(MIN_RANGE_SIZE, rangeSize);
+    }
+
+    /**
+     * @return the synchronizer statistics summed over the ranges replayed so
+     * far
+     */
+    public SyncStatistics getStatistics() {
+        return _statistics;
+    }
+
+    /**
+     * Writes the properties and the synchronizer statistics to the file once
+     * the recording has been processed.
+     *
+     * @param file
+     * @param properties
+     */
+    void setPassProperties(File file, Properties properties) {
+        _passPropertyFile = file;
+        _passProperties = properties;
+    }
+
+    private static class Range {
+
+        private final Map<Integer, FrameCounter> _frameCounters = new HashMap<>();
+        private final Map<Integer, Gate> _gates = new HashMap<>();
+        private final Map<Integer, FileRecorder> _fileRecorders = new HashMap<>();
+        private final Map<Integer, RangePacketHandler> _packetHandlers = new HashMap<>();
+        private final Map<Integer, PayloadRecorder> _rawRecorders = new HashMap<>();
+        private final RecordingStore _store = new RecordingStore();
+        private SyncStatistics _statistics;
+
+        public PayloadHandler createFileStack(int vc, int[] lastSequenceCounts) {
+            FileRecorder recorder = new FileRecorder(_store);
+            RangePacketHandler packetHandler = new RangePacketHandler(recorder, lastSequenceCounts);
+            Gate gate = new Gate(new MpduPayloadAssembler(packetHandler), recorder);
+            FrameCounter counter = new FrameCounter(new CaduHandler(new MpduHandler(gate)));
+            _fileRecorders.put(vc, recorder);
+            _packetHandlers.put(vc, packetHandler);
+            _gates.put(vc, gate);
+            _frameCounters.put(vc, counter);
+            return counter;
+        }
+
+        public PayloadHandler createRawRecorder(int vc) {
+            PayloadRecorder recorder = new PayloadRecorder(_store);
+            _rawRecorders.put(vc, recorder);
+            return recorder;
+        }
+
+        public void endReached() {
+            for (FrameCounter counter : _frameCounters.values()) {
+                counter.endReached();
+            }
+            for (Gate gate : _gates.values()) {
+                gate.endReached();
+            }
+            for (PayloadRecorder recorder : _rawRecorders.values()) {
+                recorder.seal();
+            }
+        }
+
+        public boolean isSealed() {
+            for (Gate gate : _gates.values()) {
+                if (!gate.isSealed()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * Sits in front of the space packet assembler. Once the end of the range
+     * has been reached, the packet that is still being assembled is allowed to
+     * complete and the recording is sealed.
+     */
+    private static class Gate implements HeaderAwarePayloadHandler {
+
+        private final MpduPayloadAssembler _assembler;
+        private final Recording<?> _recording;
+        private boolean _endReached = false;
+
+        public Gate(MpduPayloadAssembler assembler, Recording<?> recording) {
+            _assembler = assembler;
+            _recording = recording;
+        }
+
+        public void endReached() {
+            _endReached = true;
+            if (!_assembler.isAssembling()) {
+                _recording.seal();
+            }
+        }
+
+        public boolean isSealed() {
+            return _recording.isSealed();
+        }
+
+        @Override
+        public void headerPacket(Slice slice) throws IOException {
+            if (!isSealed()) {
+                _assembler.headerPacket(slice);
+                if (_endReached) {
+                    _recording.seal();
+                }
+            }
+        }
+
+        @Override
+        public void payload(Slice e) throws IOException {
+            if (!isSealed()) {
+                _assembler.payload(e);
+            }
+        }
+
+        @Override
+        public void dataLost() {
+            if (_endReached) {
+                // the packet is dropped and the next range reports the loss
+                _recording.seal();
+            }
+            _assembler.dataLost();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _assembler.close();
+        }
+
+    }
+
+    /**
+     * Keeps track of the first VC frame count in the range and the last one
+     * before the end of the range.
+     */
+    private static class FrameCounter implements PayloadHandler {
+
+        private final PayloadHandler _handler;
+        private long _first = -1;
+        private long _last = -1;
+        private boolean _endReached = false;
+
+        public FrameCounter(PayloadHandler handler) {
+            _handler = handler;
+        }
+
+        public void endReached() {
+            _endReached = true;
+        }
+
+        public long getFirst() {
+            return _first;
+        }
+
+        public long getLast() {
+            return _last;
+        }
+
+        @Override
+        public void payload(Slice e) throws IOException {
+            if (!_endReached) {
+                Slice header = e.duplicate();
+                header.skip(CaduHeader.ASM_SIZE + 2);
+                _last = header.getBytesAsLong(3);
+                if (_first < 0) {
+                    _first = _last;
+                }
+            }
+            _handler.payload(e);
+        }
+
+        @Override
+        public void dataLost() {
+            _handler.dataLost();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _handler.close();
+        }
+
+    }
+
+    /**
+     * Follows the sequence counts of the packets that make it into the
+     * recording. The first packet of every APID is recorded with a check
+     * against the last count of the ranges replayed before it, since this
+     * range cannot know it.
+     */
+    private static class RangePacketHandler extends SpacePacketHandler {
+
+        private final FileRecorder _recorder;
+        private final int[] _replayedCounts; // only read while replaying
+        private final int[] _lastCounts = new int[APID.COUNT];
+
+        public RangePacketHandler(FileRecorder recorder, int[] replayedCounts) {
+            super(new CfdpHandler(recorder));
+            _recorder = recorder;
+            _replayedCounts = replayedCounts;
+            Arrays.fill(_lastCounts, -1);
+        }
+
+        @Override
+        protected void sequenceCount(APID apid, int lastCount, int count) {
+            if (!_recorder.isSealed()) {
+                if (lastCount < 0) {
+                    _recorder.record(target -> {
+                        int replayed = _replayedCounts[apid.getValue()];
+                        if (replayed >= 0 && !SpacePacketHeader.isNextSequenceCount(replayed, count)) {
+                            target.sequenceGap(apid, replayed, count);
+                        }
+                    });
+                }
+                _lastCounts[apid.getValue()] = count;
+            }
+        }
+
+        public void updateLastCounts(int[] counts) {
+            for (int i = 0; i < counts.length; i++) {
+                if (_lastCounts[i] >= 0) {
+                    counts[i] = _lastCounts[i];
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Copies recorded data into large blocks so that recordings do not hold on
+     * to the oversized buffers of the packet assembler.
+     */
+    private static class RecordingStore {
+
+        private ByteBuffer _block;
+
+        public Slice copy(Slice data) {
+            int length = data.remaining();
+            if (_block == null || _block.remaining() < length) {
+                _block = ByteBuffer.allocate(Math.max(RECORDING_BLOCK_SIZE, length));
+            }
+            int start = _block.position();
+            int position = data.position();
+            data.read(_block);
+            data.position(position);
+            return Slices.create(_block, start, _block.position());
+        }
+
+    }
+
+    private static abstract class Recording<T> {
+
+        private final List<Event<T>> _events = new ArrayList<>();
+        private boolean _sealed = false;
+
+        public void seal() {
+            _sealed = true;
+        }
+
+        public boolean isSealed() {
+            return _sealed;
+        }
+
+        protected void record(Event<T> event) {
+            if (!_sealed) {
+                _events.add(event);
+            }
+        }
+
+        public void replay(T target) throws IOException {
+            for (Event<T> event : _events) {
+                event.replay(target);
+            }
+            _events.clear();
+        }
+
+    }
+
+    private static interface Event<T> {
+
+        void replay(T target) throws IOException;
+    }
+
+    private static class FileRecorder extends Recording<FileHandler> implements FileHandler {
+
+        private final RecordingStore _store;
+
+        public FileRecorder(RecordingStore store) {
+            _store = store;
+        }
+
+        @Override
+        public void startFile(String name) throws IOException {
+            record(target -> target.startFile(name));
+        }
+
+        @Override
+        public void endFile(long filesize, int checksum) throws IOException {
+            record(target -> target.endFile(filesize, checksum));
+        }
+
+        @Override
+        public void fileData(Slice data, APID apid, int length, long offset) throws IOException {
+            if (!isSealed()) {
+                Slice copy = _store.copy(data);
+                record(target -> target.fileData(copy, apid, length, offset));
+            }
+        }
+
+        @Override
+        public void sequenceGap(APID apid, int lastCount, int nextCount) {
+            if (!isSealed()) {
+                record(target -> target.sequenceGap(apid, lastCount, nextCount));
+            }
+        }
+
+        @Override
+        public void dataLost() {
+            record(target -> target.dataLost());
+        }
+
+        @Override
+        public void close() {
+            // the real handler is closed once all ranges have been replayed
+        }
+
+    }
+
+    private static class PayloadRecorder extends Recording<PayloadHandler> implements PayloadHandler {
+
+        private final RecordingStore _store;
+
+        public PayloadRecorder(RecordingStore store) {
+            _store = store;
+        }
+
+        @Override
+        public void payload(Slice e) throws IOException {
+            if (!isSealed()) {
+                Slice copy = _store.copy(e);
+                record(target -> target.payload(copy));
+            }
+        }
+
+        @Override
+        public void dataLost() {
+            record(target -> target.dataLost());
+        }
+
+        @Override
+        public void close() {
+            // the real handler is closed once all ranges have been replayed
+        }
+
+    }
+
+}
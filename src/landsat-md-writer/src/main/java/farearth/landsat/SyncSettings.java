@@ -0,0 +1,60 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+/**
+ * Thresholds of the CADU frame synchronizer state machine.
+ *
+ * @author Chris
+ */
+public class SyncSettings {
+
+    public static final SyncSettings DEFAULT = new SyncSettings(2, 2, 2);
+
+    private final int _verifyFrames;
+    private final int _asmBitErrors;
+    private final int _flywheelFrames;
+
+    /**
+     * @param verifyFrames number of consecutive frames that have to be
+     * followed by an ASM before the stream is locked
+     * @param asmBitErrors number of bit errors tolerated in an ASM at an
+     * expected offset
+     * @param flywheelFrames number of consecutive missed ASMs tolerated while
+     * locked before searching again
+     */
+    public SyncSettings(int verifyFrames, int asmBitErrors, int flywheelFrames) {
+        if (verifyFrames < 1) {
+            throw new IllegalArgumentException("At least one frame has to be verified: " + verifyFrames);
+        }
+        if (asmBitErrors < 0 || asmBitErrors >= 16) {
+            throw new IllegalArgumentException("ASM bit errors must be in [0, 16): " + asmBitErrors);
+        }
+        if (flywheelFrames < 0) {
+            throw new IllegalArgumentException("Flywheel frames cannot be negative: " + flywheelFrames);
+        }
+        _verifyFrames = verifyFrames;
+        _asmBitErrors = asmBitErrors;
+        _flywheelFrames = flywheelFrames;
+    }
+
+    public int getVerifyFrames() {
+        return _verifyFrames;
+    }
+
+    public int getAsmBitErrors() {
+        return _asmBitErrors;
+    }
+
+    public int getFlywheelFrames() {
+        return _flywheelFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncSettings{" + "verifyFrames=" + _verifyFrames + ", asmBitErrors=" + _asmBitErrors + ", flywheelFrames=" + _flywheelFrames + '}';
+    }
+
+}
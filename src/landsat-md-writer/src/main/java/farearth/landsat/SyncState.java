@@ -0,0 +1,31 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+/**
+ * States of the CADU frame synchronizer.
+ *
+ * @author Chris
+ */
+public enum SyncState {
+
+    /**
+     * Scanning for an ASM followed by a valid Landsat 8 frame header.
+     */
+    Search,
+    /**
+     * Frames are only accepted if the next ASM follows them exactly.
+     */
+    Check,
+    /**
+     * Frames are taken at the expected offset without scanning.
+     */
+    Lock,
+    /**
+     * Locked, but the last ASMs were missed. Frames are still taken at the
+     * expected offset until the flywheel tolerance runs out.
+     */
+    Flywheel
+}
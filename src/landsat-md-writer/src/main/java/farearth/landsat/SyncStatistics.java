@@ -0,0 +1,128 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in, and transitions into, every state of the CADU frame
+ * synchronizer. Time is only sampled on transitions, so the locked path pays
+ * nothing for it.
+ *
+ * @author Chris
+ */
+public class SyncStatistics {
+
+    private static final SyncState[] STATES = SyncState.values();
+
+    private final long[] _nanos = new long[STATES.length];
+    private final long[] _transitions = new long[STATES.length];
+    private SyncState _state = SyncState.Search;
+    private long _since = -1;
+    private long _flywheelFrames;
+    private long _droppedFrames;
+
+    void start() {
+        if (_since < 0) {
+            _since = System.nanoTime();
+        }
+    }
+
+    void stop() {
+        if (_since >= 0) {
+            _nanos[_state.ordinal()] += System.nanoTime() - _since;
+            _since = -1;
+        }
+    }
+
+    void transition(SyncState state) {
+        if (state != _state) {
+            long now = System.nanoTime();
+            if (_since >= 0) {
+                _nanos[_state.ordinal()] += now - _since;
+            }
+            _since = now;
+            _transitions[state.ordinal()]++;
+            _state = state;
+        }
+    }
+
+    void flywheelFrame() {
+        _flywheelFrames++;
+    }
+
+    void droppedFrame() {
+        _droppedFrames++;
+    }
+
+    /**
+     * Adds the times and counts of another synchronizer, such as the one of
+     * another range of the same recording. The state is left as it is.
+     *
+     * @param other
+     */
+    void add(SyncStatistics other) {
+        for (int i = 0; i < STATES.length; i++) {
+            _nanos[i] += other._nanos[i];
+            _transitions[i] += other._transitions[i];
+        }
+        _flywheelFrames += other._flywheelFrames;
+        _droppedFrames += other._droppedFrames;
+    }
+
+    public SyncState getState() {
+        return _state;
+    }
+
+    public long getNanos(SyncState state) {
+        return _nanos[state.ordinal()];
+    }
+
+    /**
+     * @param state
+     * @return number of times the synchronizer went into the state
+     */
+    public long getTransitions(SyncState state) {
+        return _transitions[state.ordinal()];
+    }
+
+    /**
+     * @return frames that were dispatched although their ASM was missed
+     */
+    public long getFlywheelFrames() {
+        return _flywheelFrames;
+    }
+
+    /**
+     * @return frames that were skipped while locked because of an invalid
+     * header
+     */
+    public long getDroppedFrames() {
+        return _droppedFrames;
+    }
+
+    public void updateProperties(Properties properties) {
+        for (SyncState state : STATES) {
+            String prefix = "sync-" + state.name().toLowerCase();
+            properties.put(prefix + "-time", String.valueOf(TimeUnit.NANOSECONDS.toMillis(getNanos(state))));
+            properties.put(prefix + "-transitions", String.valueOf(getTransitions(state)));
+        }
+        properties.put("sync-flywheel-frames", String.valueOf(_flywheelFrames));
+        properties.put("sync-dropped-frames", String.valueOf(_droppedFrames));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (SyncState state : STATES) {
+            sb.append(String.format("%s %dms (%d), ", state,
+                    TimeUnit.NANOSECONDS.toMillis(getNanos(state)), getTransitions(state)));
+        }
+        sb.append(String.format("flywheel frames %d, dropped frames %d", _flywheelFrames, _droppedFrames));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc;
+
+import farearth.landsat.ldpc.decode.Landsat8LdpcParityGraph;
+import farearth.landsat.ldpc.encode.Landsat8LdpcGeneratorMatrix;
+import farearth.landsat.ldpc.encode.LdpcCompactGeneratorMatrix;
+
+/**
+ * The Landsat 8 LDPC code tables, shared by every decoder and encoder in the
+ * JVM. None of the tables change once built, each one is built on first use
+ * by its own holder class, so a decode only run never builds the generator
+ * tables and the class loader takes care of thread safety.
+ *
+ * @author anton
+ */
+public final class Landsat8LdpcCodes {
+
+    private Landsat8LdpcCodes() {
+    }
+
+    public static Landsat8LdpcFrameSizes getFrameSizes() {
+        return FrameSizesHolder.FRAME_SIZES;
+    }
+
+    public static Landsat8LdpcParityGraph getParityGraph() {
+        return ParityHolder.GRAPH;
+    }
+
+    public static Landsat8LdpcGeneratorMatrix getGeneratorMatrix() {
+        return GeneratorHolder.MATRIX;
+    }
+
+    /**
+     * @return the parity columns of the generator matrix in the layout of the
+     * fast encoder
+     */
+    public static LdpcCompactGeneratorMatrix getCompactGeneratorMatrix() {
+        return CompactGeneratorHolder.MATRIX;
+    }
+
+    private static class FrameSizesHolder {
+
+        static final Landsat8LdpcFrameSizes FRAME_SIZES = new Landsat8LdpcFrameSizes();
+    }
+
+    private static class ParityHolder {
+
+        static final Landsat8LdpcParityGraph GRAPH = new Landsat8LdpcParityGraph();
+    }
+
+    private static class GeneratorHolder {
+
+        static final Landsat8LdpcGeneratorMatrix MATRIX = new Landsat8LdpcGeneratorMatrix();
+    }
+
+    private static class CompactGeneratorHolder {
+
+        static final LdpcCompactGeneratorMatrix MATRIX = new LdpcCompactGeneratorMatrix(getGeneratorMatrix(), getFrameSizes().getVirtualBitCount());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A matrix made up of square circulant blocks, stored as only the set bits of
+ * the first row of each circulant. Each subsequent row of a circulant is the
+ * row above shifted once to the right, with the overflow inserted again from
+ * the left, so any row or column can be listed without materialising the
+ * matrix.
+ *
+ * @author anton
+ */
+public class LdpcCirculantMatrix {
+
+    private final int circulantSize;
+    private final int[][][] firstRows; // [circulant row][circulant column] = set bits in the first row, ascending
+
+    /**
+     * @param circulantSize The width and height, in bits, of each circulant.
+     * @param firstRows [circulant row][circulant column] = the index of each
+     * set bit in the first row of the circulant, empty for an all zero
+     * circulant.
+     */
+    public LdpcCirculantMatrix(int circulantSize, int[][][] firstRows) {
+        this.circulantSize = circulantSize;
+        this.firstRows = new int[firstRows.length][][];
+        for (int r = 0; r < firstRows.length; r++) {
+            if (firstRows[r].length != firstRows[0].length) {
+                throw new IllegalArgumentException("Every row of circulants needs the same number of circulants");
+            }
+            this.firstRows[r] = new int[firstRows[r].length][];
+            for (int c = 0; c < firstRows[r].length; c++) {
+                int[] setBits = firstRows[r][c].clone();
+                Arrays.sort(setBits);
+                if (setBits.length > 0 && (setBits[0] < 0 || setBits[setBits.length - 1] >= circulantSize)) {
+                    throw new IllegalArgumentException(String.format("Circulant (%d, %d) has bits outside of its %d columns", r, c, circulantSize));
+                }
+                this.firstRows[r][c] = setBits;
+            }
+        }
+    }
+
+    /**
+     * @param firstRow The first row of a circulant, each integer represents
+     * one bit.
+     * @return the index of each set bit
+     */
+    public static int[] getSetBits(int[] firstRow) {
+        return IntStream.range(0, firstRow.length).filter(i -> firstRow[i] != 0).toArray();
+    }
+
+    public int getCirculantSize() {
+        return circulantSize;
+    }
+
+    public int getCirculantRows() {
+        return firstRows.length;
+    }
+
+    public int getCirculantColumns() {
+        return firstRows[0].length;
+    }
+
+    /**
+     * @param circulantRow
+     * @param circulantColumn
+     * @return the index of each set bit in the first row of the circulant,
+     * ascending
+     */
+    public int[] getFirstRowSetBits(int circulantRow, int circulantColumn) {
+        return firstRows[circulantRow][circulantColumn].clone();
+    }
+
+    public int getWidth() {
+        return circulantSize * firstRows[0].length;
+    }
+
+    public int getHeight() {
+        return circulantSize * firstRows.length;
+    }
+
+    public boolean isSet(int row, int column) {
+        int[] setBits = firstRows[row / circulantSize][column / circulantSize];
+        int firstRowColumn = Math.floorMod(column - row, circulantSize);
+        return Arrays.binarySearch(setBits, firstRowColumn) >= 0;
+    }
+
+    /**
+     * @param row
+     * @return the columns of the set bits in the row, ascending
+     */
+    public int[] getRowColumns(int row) {
+        int[][] circulants = firstRows[row / circulantSize];
+        int shift = row % circulantSize;
+        int count = 0;
+        for (int[] setBits : circulants) {
+            count += setBits.length;
+        }
+        int[] columns = new int[count];
+        int n = 0;
+        for (int c = 0; c < circulants.length; c++) {
+            // the bits the shift wraps around to the front come first, then the others, both in order
+            int[] setBits = circulants[c];
+            int wrap = getFirstIndexAtLeast(setBits, circulantSize - shift);
+            int offset = c * circulantSize;
+            for (int i = wrap; i < setBits.length; i++) {
+                columns[n++] = offset + setBits[i] + shift - circulantSize;
+            }
+            for (int i = 0; i < wrap; i++) {
+                columns[n++] = offset + setBits[i] + shift;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param column
+     * @return the rows of the set bits in the column, ascending
+     */
+    public int[] getColumnRows(int column) {
+        int c = column / circulantSize;
+        int shift = column % circulantSize;
+        int count = 0;
+        for (int[][] circulants : firstRows) {
+            count += circulants[c].length;
+        }
+        int[] rows = new int[count];
+        int n = 0;
+        for (int r = 0; r < firstRows.length; r++) {
+            // the row of a bit decreases as the bit increases, the bits past the shift wrap around to the end
+            int[] setBits = firstRows[r][c];
+            int wrap = getFirstIndexAtLeast(setBits, shift + 1);
+            int offset = r * circulantSize;
+            for (int i = wrap - 1; i >= 0; i--) {
+                rows[n++] = offset + shift - setBits[i];
+            }
+            for (int i = setBits.length - 1; i >= wrap; i--) {
+                rows[n++] = offset + shift - setBits[i] + circulantSize;
+            }
+        }
+        return rows;
+    }
+
+    private static int getFirstIndexAtLeast(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Dense view of one row, created on demand.
+     *
+     * @param row
+     * @return the row with column c in bit (63 - c % 64) of long c / 64
+     */
+    public long[] getPackedRow(int row) {
+        long[] packed = new long[(getWidth() + Long.SIZE - 1) / Long.SIZE];
+        for (int column : getRowColumns(row)) {
+            packed[column >>> 6] |= 1L << (63 - (column & 63));
+        }
+        return packed;
+    }
+
+    /**
+     * Dense view of one column, created on demand.
+     *
+     * @param column
+     * @return the column with row r in bit (63 - r % 64) of long r / 64
+     */
+    public long[] getPackedColumn(int column) {
+        long[] packed = new long[(getHeight() + Long.SIZE - 1) / Long.SIZE];
+        for (int row : getColumnRows(column)) {
+            packed[row >>> 6] |= 1L << (63 - (row & 63));
+        }
+        return packed;
+    }
+
+    /**
+     * Writes the matrix into a byte per bit matrix of at least this size.
+     *
+     * @param bitMatrix
+     */
+    public void populate(byte[][] bitMatrix) {
+        for (int row = 0; row < getHeight(); row++) {
+            for (int column : getRowColumns(row)) {
+                bitMatrix[row][column] = 1;
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@
 package farearth.landsat.ldpc;
 
 import farearth.landsat.util.ByteMatrix;
+import java.util.Optional;
 
 /**
  *
@@ -14,13 +15,25 @@ public abstract class LdpcMatrix implements ByteMatrix {
 
     private final int width;
     private final int height;
-    private final byte[][] matrix; // each byte represents a bit in the matrix
+    private final LdpcCirculantMatrix circulants;
+    private byte[][] matrix; // each byte represents a bit in the matrix, only created when asked for
 
     public LdpcMatrix(int width, int height) {
         this.width = width;
         this.height = height;
-        this.matrix = new byte[height][width];
-        populate(matrix);
+        this.circulants = null;
+    }
+
+    /**
+     * A matrix described by its circulants, which lists rows and columns
+     * without ever creating the byte per bit matrix.
+     *
+     * @param circulants
+     */
+    public LdpcMatrix(LdpcCirculantMatrix circulants) {
+        this.width = circulants.getWidth();
+        this.height = circulants.getHeight();
+        this.circulants = circulants;
     }
 
     protected abstract void populate(byte[][] matrix);
@@ -35,8 +48,70 @@ public abstract class LdpcMatrix implements ByteMatrix {
         return height;
     }
 
+    public Optional<LdpcCirculantMatrix> getCirculants() {
+        return Optional.ofNullable(circulants);
+    }
+
+    /**
+     * @param row
+     * @return the columns of the set bits in the row, ascending
+     */
+    public int[] getRowColumns(int row) {
+        if (circulants != null) {
+            return circulants.getRowColumns(row);
+        }
+        byte[] values = getRawMatrix()[row];
+        int count = 0;
+        for (byte value : values) {
+            if (value != 0) {
+                count++;
+            }
+        }
+        int[] columns = new int[count];
+        for (int c = 0, n = 0; c < values.length; c++) {
+            if (values[c] != 0) {
+                columns[n++] = c;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param column
+     * @return the rows of the set bits in the column, ascending
+     */
+    public int[] getColumnRows(int column) {
+        if (circulants != null) {
+            return circulants.getColumnRows(column);
+        }
+        byte[][] rows = getRawMatrix();
+        int count = 0;
+        for (byte[] values : rows) {
+            if (values[column] != 0) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        for (int r = 0, n = 0; r < rows.length; r++) {
+            if (rows[r][column] != 0) {
+                result[n++] = r;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The byte per bit matrix is large (about 58 MB for the Landsat 8
+     * generator), it is only created the first time it is asked for.
+     *
+     * @return
+     */
     @Override
-    public byte[][] getRawMatrix() {
+    public synchronized byte[][] getRawMatrix() {
+        if (matrix == null) {
+            matrix = new byte[height][width];
+            populate(matrix);
+        }
         return matrix;
     }
 }
@@ -5,6 +5,7 @@
 package farearth.landsat.ldpc.decode;
 
 import static farearth.landsat.ldpc.Landsat8LdpcConstants.ENCODER_BIT_BOUNDARY;
+import farearth.landsat.ldpc.Landsat8LdpcCodes;
 
 /**
  *
@@ -16,6 +17,10 @@ public class Landsat8LdpcDecoderAccurate extends LdpcDecoderAccurate<Landsat8Ldp
         this(graph, true, 100);
     }
 
+    public Landsat8LdpcDecoderAccurate(boolean detectErrors, int maxErrorsToFix) {
+        super(Landsat8LdpcCodes.getParityGraph(), detectErrors, maxErrorsToFix, ENCODER_BIT_BOUNDARY);
+    }
+
     /**
      * Constructs a Landsat 8 LDPC decoder.
      *
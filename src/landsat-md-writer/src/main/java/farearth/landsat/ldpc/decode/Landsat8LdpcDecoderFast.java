@@ -5,6 +5,7 @@
 package farearth.landsat.ldpc.decode;
 
 import static farearth.landsat.ldpc.Landsat8LdpcConstants.ENCODER_BIT_BOUNDARY;
+import farearth.landsat.ldpc.Landsat8LdpcCodes;
 
 /**
  *
@@ -21,7 +22,7 @@ public class Landsat8LdpcDecoderFast extends LdpcDecoderFast<Landsat8LdpcParityG
     }
 
     public Landsat8LdpcDecoderFast(boolean detectErrors, int maxErrorsToFix) {
-        super(new Landsat8LdpcParityGraph(new Landsat8LdpcParityMatrix()), detectErrors, maxErrorsToFix, ENCODER_BIT_BOUNDARY);
+        super(Landsat8LdpcCodes.getParityGraph(), detectErrors, maxErrorsToFix, ENCODER_BIT_BOUNDARY);
     }
 
     /**
@@ -0,0 +1,34 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+import static farearth.landsat.ldpc.Landsat8LdpcConstants.ENCODER_BIT_BOUNDARY;
+import farearth.landsat.ldpc.Landsat8LdpcCodes;
+
+/**
+ *
+ * @author anton
+ */
+public class Landsat8LdpcMinSumDecoder extends LdpcMinSumDecoder<Landsat8LdpcParityGraph> {
+
+    public Landsat8LdpcMinSumDecoder() {
+        this(20);
+    }
+
+    public Landsat8LdpcMinSumDecoder(int maxIterations) {
+        this(Landsat8LdpcCodes.getParityGraph(), maxIterations);
+    }
+
+    /**
+     * Constructs a Landsat 8 soft decision LDPC decoder.
+     *
+     * @param graph The parity graph.
+     * @param maxIterations The maximum number of passes over all parity
+     * checks (see LdpcMinSumDecoder).
+     */
+    public Landsat8LdpcMinSumDecoder(Landsat8LdpcParityGraph graph, int maxIterations) {
+        super(graph, maxIterations, ENCODER_BIT_BOUNDARY);
+    }
+}
@@ -12,6 +12,10 @@ import farearth.landsat.ldpc.Landsat8LdpcConstants.Parity;
  */
 public class Landsat8LdpcParityGraph extends LdpcParityGraph<Landsat8LdpcParityMatrix> {
 
+    public Landsat8LdpcParityGraph() {
+        this(new Landsat8LdpcParityMatrix());
+    }
+
     public Landsat8LdpcParityGraph(Landsat8LdpcParityMatrix matrix) {
         //rowBitCol = [1022][32] = [row][0-32] = column
         //colBitNum = [1022][32] = [row][0-32] = column set bit index
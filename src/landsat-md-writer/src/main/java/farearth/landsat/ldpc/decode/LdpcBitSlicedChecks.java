@@ -0,0 +1,129 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+import java.util.Arrays;
+
+/**
+ * Parity checks on up to 64 codewords at once. The codewords are transposed
+ * into a bit-sliced layout, where one long holds the same bit of every
+ * codeword, so each parity check is a plain XOR of its row's longs and yields
+ * the check result of all codewords together.
+ *
+ * @author anton
+ */
+public class LdpcBitSlicedChecks {
+
+    public static final int BATCH_SIZE = Long.SIZE;
+    private final LdpcPackedParityChecks packedChecks;
+    private final int[] rowStart; // [row] = index of the first bit of the row, [rows] = bit count
+    private final int[] rowBits; // [index] = codeword bit
+
+    public LdpcBitSlicedChecks(LdpcParityGraph graph, int virtualBitCount, LdpcPackedParityChecks packedChecks) {
+        this.packedChecks = packedChecks;
+        int rows = graph.getRows();
+        int rowWeight = graph.getRowWeight();
+        int[][] rowColumnMatrix = graph.getRowColumnMatrix();
+        rowStart = new int[rows + 1];
+        int[] bits = new int[rows * rowWeight];
+        int count = 0;
+        for (int r = 0; r < rows; r++) {
+            rowStart[r] = count;
+            for (int n = 0; n < rowWeight; n++) {
+                int bitNum = rowColumnMatrix[r][n] - virtualBitCount;
+                if (bitNum >= 0) { // virtual bits all zero
+                    bits[count++] = bitNum;
+                }
+            }
+        }
+        rowStart[rows] = count;
+        rowBits = Arrays.copyOf(bits, count);
+    }
+
+    /**
+     * @return scratch space for {@link #getFailingCodewords(byte[][], int, long[][], long[])}
+     */
+    public long[][] createPackedScratch() {
+        return new long[BATCH_SIZE][packedChecks.getWordCount()];
+    }
+
+    /**
+     * @return scratch space for {@link #getFailingCodewords(byte[][], int, long[][], long[])}
+     */
+    public long[] createSlicedScratch() {
+        return new long[packedChecks.getWordCount() * Long.SIZE];
+    }
+
+    /**
+     * Runs every parity check on a batch of codewords.
+     *
+     * @param codewords
+     * @param count number of codewords, at most 64
+     * @param packed scratch space
+     * @param sliced scratch space
+     * @return a mask with bit (63 - i) set if codeword i fails a parity check
+     */
+    public long getFailingCodewords(byte[][] codewords, int count, long[][] packed, long[] sliced) {
+        return getFailingCodewords(codewords, count, packed, sliced, null);
+    }
+
+    /**
+     * Derandomizes a batch of codewords as they are packed and runs every
+     * parity check on them.
+     *
+     * @param codewords
+     * @param count number of codewords, at most 64
+     * @param packed scratch space, receives the derandomized codewords
+     * @param sliced scratch space
+     * @param randomizerWords see
+     * {@link LdpcPackedParityChecks#pack(byte[], int, long[], long[])}
+     * @return a mask with bit (63 - i) set if codeword i fails a parity check
+     */
+    public long getFailingCodewords(byte[][] codewords, int count, long[][] packed, long[] sliced, long[] randomizerWords) {
+        if (count > BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format("At most %d codewords can be checked at once, not %d", BATCH_SIZE, count));
+        }
+        int wordCount = packedChecks.getWordCount();
+        for (int i = 0; i < count; i++) {
+            packedChecks.pack(codewords[i], 0, packed[i], randomizerWords);
+        }
+        for (int w = 0; w < wordCount; w++) {
+            int offset = w * Long.SIZE;
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                sliced[offset + i] = i < count ? packed[i][w] : 0;
+            }
+            transpose(sliced, offset);
+        }
+        long valid = count == BATCH_SIZE ? -1L : ~(-1L >>> count);
+        long failing = 0;
+        int rows = rowStart.length - 1;
+        for (int r = 0; r < rows && failing != valid; r++) {
+            long sum = 0;
+            for (int i = rowStart[r], end = rowStart[r + 1]; i < end; i++) {
+                sum ^= sliced[rowBits[i]];
+            }
+            failing |= sum;
+        }
+        return failing & valid;
+    }
+
+    /**
+     * Transposes a 64x64 bit matrix in place, row i is the long at offset + i
+     * and column j is bit (63 - j).
+     *
+     * @param matrix
+     * @param offset
+     */
+    static void transpose(long[] matrix, int offset) {
+        long mask = 0x00000000FFFFFFFFL;
+        for (int j = 32; j != 0; j >>>= 1, mask ^= mask << j) {
+            for (int k = 0; k < Long.SIZE; k = ((k | j) + 1) & ~j) {
+                long t = (matrix[offset + k] ^ (matrix[offset + (k | j)] >>> j)) & mask;
+                matrix[offset + k] ^= t;
+                matrix[offset + (k | j)] ^= t << j;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+/**
+ * Decoding effort policy of a {@link PipelinedLdpcDecoder} under load. The
+ * backlog is the number of batches that were submitted but not released yet;
+ * as it crosses the watermarks the error correction budget of a frame is
+ * lowered, so that clean frames keep flowing while the hard frames are
+ * deferred to a retry pool that runs at a lower priority. A deferred frame is
+ * only waited for if the backlog has drained by the time it is released,
+ * otherwise it is abandoned.
+ *
+ * @author anton
+ */
+public class LdpcDecodeBudget {
+
+    public static enum Level {
+
+        /**
+         * Frames get the decoder's full error correction budget, the ones
+         * that fail are only retried by a fallback decoder.
+         */
+        Normal,
+        /**
+         * Frames get the reduced budget, the ones that fail are retried with
+         * the full budget.
+         */
+        Reduced,
+        /**
+         * Frames are only parity checked, the ones that fail are retried with
+         * the full budget.
+         */
+        Shed
+    }
+
+    private final int reducedBacklog;
+    private final int shedBacklog;
+    private final int reducedMaxErrorsToFix;
+    private final int maxRetries;
+
+    /**
+     * @param reducedBacklog backlog, in batches, from which frames get the
+     * reduced budget
+     * @param shedBacklog backlog, in batches, from which frames are only
+     * parity checked
+     * @param reducedMaxErrorsToFix the error correction budget of the
+     * {@link Level#Reduced} level
+     * @param maxRetries the number of deferred frames that may wait for a
+     * retry, a failed frame is abandoned straight away once it is reached
+     */
+    public LdpcDecodeBudget(int reducedBacklog, int shedBacklog, int reducedMaxErrorsToFix, int maxRetries) {
+        if (reducedBacklog < 1 || shedBacklog < reducedBacklog || reducedMaxErrorsToFix < 0 || maxRetries < 0) {
+            throw new IllegalArgumentException(String.format("Invalid LDPC decode budget: reducedBacklog=%d, shedBacklog=%d, reducedMaxErrorsToFix=%d, maxRetries=%d",
+                    reducedBacklog, shedBacklog, reducedMaxErrorsToFix, maxRetries));
+        }
+        this.reducedBacklog = reducedBacklog;
+        this.shedBacklog = shedBacklog;
+        this.reducedMaxErrorsToFix = reducedMaxErrorsToFix;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @return a policy that always spends the full budget, which suits
+     * recordings where a backlog only means the reader is ahead. Failed
+     * frames are not retried.
+     */
+    public static LdpcDecodeBudget fullEffort() {
+        return fullEffort(0);
+    }
+
+    /**
+     * @param maxRetries the number of failed frames that may wait for a
+     * fallback decoder, typically {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @return a policy that always spends the full budget
+     */
+    public static LdpcDecodeBudget fullEffort(int maxRetries) {
+        return new LdpcDecodeBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, maxRetries);
+    }
+
+    /**
+     * A policy for a live feed: the budget is reduced to a quarter once half
+     * of the in-flight batches are taken and frames are only parity checked
+     * once three quarters are taken. Up to one batch of frames may wait for a
+     * retry.
+     *
+     * @param maxInFlight the in-flight limit of the pipeline
+     * @param maxErrorsToFix the decoder's full budget
+     * @return
+     */
+    public static LdpcDecodeBudget forLiveFeed(int maxInFlight, int maxErrorsToFix) {
+        int reduced = Math.max(1, maxInFlight / 2);
+        int shed = Math.max(reduced, maxInFlight * 3 / 4);
+        return new LdpcDecodeBudget(reduced, shed, maxErrorsToFix / 4, LdpcBitSlicedChecks.BATCH_SIZE);
+    }
+
+    /**
+     * @param backlog batches submitted but not released
+     * @return
+     */
+    public Level getLevel(long backlog) {
+        if (backlog >= shedBacklog) {
+            return Level.Shed;
+        }
+        return backlog >= reducedBacklog ? Level.Reduced : Level.Normal;
+    }
+
+    /**
+     * @param level
+     * @param maxErrorsToFix the decoder's full budget
+     * @return the error correction budget of a frame at the level
+     */
+    public int getMaxErrorsToFix(Level level, int maxErrorsToFix) {
+        switch (level) {
+            case Shed:
+                return 0;
+            case Reduced:
+                return Math.min(reducedMaxErrorsToFix, maxErrorsToFix);
+            default:
+                return maxErrorsToFix;
+        }
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("reduced from %d, shed from %d batches, reduced budget %d errors, %d retries",
+                reducedBacklog, shedBacklog, reducedMaxErrorsToFix, maxRetries);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+/**
+ * Reusable output of {@link LdpcDecoder#decode(byte[], int, LdpcDecodeBuffer)}.
+ * Each decode overwrites the previous contents, so steady state decoding does
+ * not allocate.
+ *
+ * @author anton
+ */
+public class LdpcDecodeBuffer {
+
+    private final byte[] decodedBytes;
+    private final int[] errorBits;
+    private int errorBitCount;
+    private int decodingLoops;
+    private boolean success;
+
+    /**
+     * @param decodedByteCount
+     * @param maxErrorBits at least the decoder's maximum errors to fix
+     */
+    public LdpcDecodeBuffer(int decodedByteCount, int maxErrorBits) {
+        this.decodedBytes = new byte[decodedByteCount];
+        this.errorBits = new int[maxErrorBits];
+    }
+
+    /**
+     * @return the info bytes, only valid if the decode succeeded
+     */
+    public byte[] getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public int getDecodingLoops() {
+        return decodingLoops;
+    }
+
+    /**
+     * @return the number of valid entries in {@link #getErrorBitPositions()}
+     */
+    public int getErrorBitCount() {
+        return errorBitCount;
+    }
+
+    /**
+     * @return the positions of the corrected bits in the encoded frame
+     */
+    public int[] getErrorBitPositions() {
+        return errorBits;
+    }
+
+    void set(boolean success, int decodingLoops, int errorBitCount) {
+        this.success = success;
+        this.decodingLoops = decodingLoops;
+        this.errorBitCount = errorBitCount;
+    }
+
+    void copyFrom(LdpcDecodeBuffer other) {
+        System.arraycopy(other.decodedBytes, 0, decodedBytes, 0, decodedBytes.length);
+        System.arraycopy(other.errorBits, 0, errorBits, 0, other.errorBitCount);
+        set(other.success, other.decodingLoops, other.errorBitCount);
+    }
+}
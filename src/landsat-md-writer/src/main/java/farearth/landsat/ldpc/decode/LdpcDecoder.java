@@ -7,8 +7,6 @@ package farearth.landsat.ldpc.decode;
 import farearth.landsat.ldpc.LdpcFrameSizes;
 import farearth.landsat.util.BitUtils;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +24,10 @@ public abstract class LdpcDecoder<ParityGraph extends LdpcParityGraph, DecoderCo
     private final boolean detectErrors;
     private final int maxFixes;
     private final LdpcFrameSizes frameSizes;
+    private final LdpcPackedParityChecks parityChecks;
+    private final LdpcBitSlicedChecks slicedChecks;
+    // decoders are shared between threads, the scratch state is per thread
+    private final ThreadLocal<Workspace<DecoderContext>> workspaces;
 
     /**
      * Constructs an LDPC decoder.
@@ -47,11 +49,18 @@ public abstract class LdpcDecoder<ParityGraph extends LdpcParityGraph, DecoderCo
         this.detectErrors = detectErrors;
         this.maxFixes = maxErrorsToFix;
         this.frameSizes = new LdpcFrameSizes(graph.getRows(), graph.getColumns(), encoderBitBoundary);
+        this.parityChecks = new LdpcPackedParityChecks(graph, frameSizes.getVirtualBitCount(), frameSizes.getEncodedByteCount());
+        this.slicedChecks = new LdpcBitSlicedChecks(graph, frameSizes.getVirtualBitCount(), parityChecks);
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace<>(new long[parityChecks.getWordCount()], createContext()));
     }
 
-    protected abstract DecoderContext createContext(byte[] encodedBytes);
-
-    protected abstract Integer getNextBitToFlip(DecoderContext context);
+    /**
+     * Creates the decoder state of a thread, it is reset before every
+     * codeword that needs correction.
+     *
+     * @return
+     */
+    protected abstract DecoderContext createContext();
 
     public ParityGraph getGraph() {
         return graph;
@@ -61,99 +70,226 @@ public abstract class LdpcDecoder<ParityGraph extends LdpcParityGraph, DecoderCo
         return frameSizes;
     }
 
+    public int getMaxErrorsToFix() {
+        return maxFixes;
+    }
+
+    protected LdpcPackedParityChecks getParityChecks() {
+        return parityChecks;
+    }
+
+    /**
+     * @return an output buffer large enough for this decoder
+     */
+    public LdpcDecodeBuffer createDecodeBuffer() {
+        return new LdpcDecodeBuffer(frameSizes.getDecodedByteCount(), Math.max(maxFixes, 0));
+    }
+
     public LdpcDecodeResult decode(byte[] encodedBytes) {
-        byte[] decoded = null;
-        int decodedByteCount = frameSizes.getDecodedByteCount();
-        int loop = 0;
-        List<Integer> errorBits = Collections.EMPTY_LIST;
+        return decode(encodedBytes, null);
+    }
+
+    /**
+     * @param encodedBytes the received codeword, it is left as is
+     * @param randomizerWords see
+     * {@link #decode(byte[], int, LdpcDecodeBuffer, int, long[])}
+     * @return
+     */
+    public LdpcDecodeResult decode(byte[] encodedBytes, long[] randomizerWords) {
+        LdpcDecodeBuffer buffer = createDecodeBuffer();
+        decode(encodedBytes, 0, buffer, maxFixes, randomizerWords);
+        List<Integer> errorBits = new ArrayList<>(buffer.getErrorBitCount());
+        for (int i = 0; i < buffer.getErrorBitCount(); i++) {
+            errorBits.add(buffer.getErrorBitPositions()[i]);
+        }
+        byte[] decoded = buffer.isSuccess() ? buffer.getDecodedBytes() : null;
+        return new LdpcDecodeResult(encodedBytes, decoded, buffer.getDecodingLoops(), errorBits);
+    }
+
+    /**
+     * Decodes a codeword into a caller supplied buffer. Scratch state is kept
+     * per thread, so this does not allocate once a thread has decoded its
+     * first frame.
+     *
+     * @param encodedBytes
+     * @param offset start of the codeword in encodedBytes
+     * @param buffer receives the info bytes and the corrected bit positions
+     * @return true if the info bytes are valid
+     */
+    public boolean decode(byte[] encodedBytes, int offset, LdpcDecodeBuffer buffer) {
+        return decode(encodedBytes, offset, buffer, maxFixes);
+    }
+
+    /**
+     * Decodes a codeword with a smaller error correction budget than the
+     * decoder's own, so that a caller under load can give up on a hard
+     * codeword early.
+     *
+     * @param encodedBytes
+     * @param offset start of the codeword in encodedBytes
+     * @param buffer receives the info bytes and the corrected bit positions
+     * @param maxErrorsToFix the bits that may be flipped for this codeword,
+     * limited to {@link #getMaxErrorsToFix()}; 0 only checks the parity
+     * @return true if the info bytes are valid
+     */
+    public boolean decode(byte[] encodedBytes, int offset, LdpcDecodeBuffer buffer, int maxErrorsToFix) {
+        return decode(encodedBytes, offset, buffer, maxErrorsToFix, null);
+    }
+
+    /**
+     * Derandomizes and decodes a codeword. The randomizer sequence is XORed
+     * into the codeword while it is packed for the parity checks, so the
+     * codeword is read once and left as is.
+     *
+     * @param encodedBytes
+     * @param offset start of the codeword in encodedBytes
+     * @param buffer receives the derandomized info bytes and the corrected bit
+     * positions
+     * @param maxErrorsToFix the bits that may be flipped for this codeword,
+     * limited to {@link #getMaxErrorsToFix()}; 0 only checks the parity
+     * @param randomizerWords the randomizer sequence of a whole codeword
+     * packed into longs (see
+     * {@link farearth.landsat.util.SequenceRandomizer#createCcsdsMaskWords(int)}),
+     * null if the codeword is not randomized
+     * @return true if the info bytes are valid
+     */
+    public boolean decode(byte[] encodedBytes, int offset, LdpcDecodeBuffer buffer, int maxErrorsToFix, long[] randomizerWords) {
+        Workspace<DecoderContext> workspace = workspaces.get();
+        long[] packed = workspace.packed;
+        parityChecks.pack(encodedBytes, offset, packed, randomizerWords);
+        return decodePacked(workspace, packed, buffer, maxErrorsToFix, false);
+    }
+
+    /**
+     * @param knownFailing true if the codeword is known to fail a parity
+     * check, which skips the half of the rows shortcut that would take some
+     * failing codewords for clean ones
+     */
+    private boolean decodePacked(Workspace<DecoderContext> workspace, long[] packed, LdpcDecodeBuffer buffer, int maxErrorsToFix, boolean knownFailing) {
+        int budget = Math.min(maxErrorsToFix, maxFixes);
+        byte[] decoded = buffer.getDecodedBytes();
+        // before any correction, which may flip bits of the packed codeword
+        LdpcPackedParityChecks.unpack(packed, decoded, frameSizes.getDecodedByteCount());
         if (!detectErrors) {
             LOG.debug("No error detection performed");
-            decoded = Arrays.copyOf(encodedBytes, decodedByteCount);
-        } else {
-            List<Integer> rows;
-            int[] expanded = BitUtils.expand(encodedBytes, 0, frameSizes.getEncodedBitCount());
-            rows = getParityRowsWithErrors(expanded);
-            if (rows.isEmpty()) {
-                LOG.debug("No errors");
-                decoded = Arrays.copyOf(encodedBytes, decodedByteCount);
-            } else if (maxFixes > 0) {
-                DecoderContext context = createContext(encodedBytes);
-                context.setParityErrorRows(rows);
-
-                do {
-                    Integer bitIndex = getNextBitToFlip(context);
-                    if (bitIndex == null) {
-                        LOG.debug("No convergence");
-                        break;
-                    }
-                    expanded[bitIndex] = expanded[bitIndex] == 0 ? 1 : 0;
-                    rows = getParityRowsWithErrors(rows, expanded, bitIndex + frameSizes.getVirtualBitCount());
-                    context.setParityErrorRows(rows);
-                    loop++;
-                } while (!rows.isEmpty() && loop < maxFixes);
-
-                if (rows.isEmpty()) {
-                    int decodedBitCount = frameSizes.getDecodedBitCount();
-                    decoded = Arrays.copyOf(encodedBytes, decodedByteCount);
-                    errorBits = context.getFinalErrorBits();
-                    for (Integer bitIndex : errorBits) {
-                        if (bitIndex < decodedBitCount) {
-                            BitUtils.flipBit(decoded, bitIndex);
-                        }
+            buffer.set(true, 0, 0);
+            return true;
+        }
+        // If the first half of the rows are error free we can assume there are no errors.
+        if (!knownFailing && parityChecks.isCodeword(packed, graph.getRows() / 2 + 1)) {
+            LOG.debug("No errors");
+            buffer.set(true, 0, 0);
+        } else if (budget > 0) {
+            DecoderContext context = workspace.context;
+            context.reset();
+            int loop = correctErrors(context, packed, budget);
+            if (context.isSolved()) {
+                int decodedBitCount = frameSizes.getDecodedBitCount();
+                int[] errorBits = buffer.getErrorBitPositions();
+                int errorBitCount = context.getFinalErrorBits(errorBits);
+                for (int i = 0; i < errorBitCount; i++) {
+                    if (errorBits[i] < decodedBitCount) {
+                        BitUtils.flipBit(decoded, errorBits[i]);
                     }
-                    LOG.debug("Converged after {} loops", loop);
-                } else {
-                    LOG.debug("No convergence after {} loops", loop);
                 }
+                buffer.set(true, loop, errorBitCount);
+                LOG.debug("Converged after {} loops", loop);
+            } else {
+                buffer.set(false, loop, 0);
+                LOG.debug("No convergence after {} loops", loop);
             }
+        } else {
+            buffer.set(false, 0, 0);
         }
-        return new LdpcDecodeResult(encodedBytes, decoded, loop, errorBits);
+        return buffer.isSuccess();
     }
 
-    private List<Integer> getParityRowsWithErrors(List<Integer> previousRows, int[] expandedBits, int changedBitNum) {
-        int[][] rowColumnMatrix = graph.getRowColumnMatrix();
-        int virtualBitCount = frameSizes.getVirtualBitCount();
-        for (int i = 0; i < graph.getColumnWeight(); i++) {
-            int row = graph.getRow(changedBitNum, i);
-            int parity = getParity(rowColumnMatrix, row, virtualBitCount, expandedBits);
-            if (parity != 0) {
-                previousRows.add(row);
-            } else {
-                previousRows.remove((Integer) row);
+    /**
+     * Decodes a batch of codewords. All parity checks of the batch are run at
+     * once on a bit-sliced copy of the codewords, only the codewords that fail
+     * a check go through error correction.
+     *
+     * @param encodedFrames
+     * @param count number of codewords, at most {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @param buffers receive the decoded codewords
+     */
+    public void decode(byte[][] encodedFrames, int count, LdpcDecodeBuffer[] buffers) {
+        decode(encodedFrames, count, buffers, maxFixes);
+    }
+
+    /**
+     * Decodes a batch of codewords with a smaller error correction budget than
+     * the decoder's own (see
+     * {@link #decode(byte[], int, LdpcDecodeBuffer, int)}).
+     *
+     * @param encodedFrames
+     * @param count number of codewords, at most {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @param buffers receive the decoded codewords
+     * @param maxErrorsToFix the bits that may be flipped per codeword
+     */
+    public void decode(byte[][] encodedFrames, int count, LdpcDecodeBuffer[] buffers, int maxErrorsToFix) {
+        decode(encodedFrames, count, buffers, maxErrorsToFix, null);
+    }
+
+    /**
+     * Derandomizes and decodes a batch of codewords. Each codeword is
+     * derandomized while it is packed for the batch parity checks and the
+     * codewords that fail a check are corrected in that packed form.
+     *
+     * @param encodedFrames
+     * @param count number of codewords, at most {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @param buffers receive the decoded codewords
+     * @param maxErrorsToFix the bits that may be flipped per codeword
+     * @param randomizerWords see
+     * {@link #decode(byte[], int, LdpcDecodeBuffer, int, long[])}
+     */
+    public void decode(byte[][] encodedFrames, int count, LdpcDecodeBuffer[] buffers, int maxErrorsToFix, long[] randomizerWords) {
+        if (!detectErrors) {
+            for (int i = 0; i < count; i++) {
+                decode(encodedFrames[i], 0, buffers[i], maxErrorsToFix, randomizerWords);
             }
+            return;
         }
-        return previousRows;
-    }
-
-    private List<Integer> getParityRowsWithErrors(int[] expandedBits) {
-        List<Integer> errorRows = new ArrayList<>();
-        int[][] rowColumnMatrix = graph.getRowColumnMatrix();
-        int virtualBitCount = frameSizes.getVirtualBitCount();
-        int rows = graph.getRows();
-        int rowsDiv2 = rows / 2;
-        for (int r = 0; r < rows; r++) {
-            int parity = getParity(rowColumnMatrix, r, virtualBitCount, expandedBits);
-            if (parity != 0) {
-                errorRows.add(r);
-            }
-
-            if (r == rowsDiv2 && errorRows.isEmpty()) {
-                // If the first half of the rows are error free we can assume there are no errors.
-                break;
+        Workspace<DecoderContext> workspace = workspaces.get();
+        if (workspace.sliced == null) {
+            workspace.batchPacked = slicedChecks.createPackedScratch();
+            workspace.sliced = slicedChecks.createSlicedScratch();
+        }
+        long[][] packed = workspace.batchPacked;
+        long failing = slicedChecks.getFailingCodewords(encodedFrames, count, packed, workspace.sliced, randomizerWords);
+        for (int i = 0; i < count; i++) {
+            if ((failing << i) < 0) {
+                decodePacked(workspace, packed[i], buffers[i], maxErrorsToFix, true);
+            } else {
+                LdpcPackedParityChecks.unpack(packed[i], buffers[i].getDecodedBytes(), frameSizes.getDecodedByteCount());
+                buffers[i].set(true, 0, 0);
             }
         }
-        return errorRows;
     }
 
-    private int getParity(int[][] rowColumnMatrix, int row, int virtualBitCount, int[] expandedBits) {
-        int parity = 0;
-        int[] matrixRow = rowColumnMatrix[row];
-        for (int n = 0; n < graph.getRowWeight(); n++) {
-            int bitNum = matrixRow[n];
-            if (bitNum >= virtualBitCount) {
-                parity ^= expandedBits[bitNum - virtualBitCount];
-            }
+    /**
+     * Flips bits until all parity checks pass or the maximum number of fixes
+     * is reached. The flipped bits are kept in the context, which is solved
+     * once all parity checks pass.
+     *
+     * @param context a context that was reset
+     * @param packed the codeword
+     * @param maxErrorsToFix the maximum number of bits to flip
+     * @return the number of bits flipped
+     */
+    protected abstract int correctErrors(DecoderContext context, long[] packed, int maxErrorsToFix);
+
+    private static class Workspace<DecoderContext> {
+
+        private final long[] packed;
+        private final DecoderContext context;
+        // only allocated by threads that decode batches
+        private long[][] batchPacked;
+        private long[] sliced;
+
+        Workspace(long[] packed, DecoderContext context) {
+            this.packed = packed;
+            this.context = context;
         }
-        return parity;
     }
 }
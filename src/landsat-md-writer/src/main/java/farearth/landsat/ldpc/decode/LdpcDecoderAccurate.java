@@ -5,127 +5,152 @@
 package farearth.landsat.ldpc.decode;
 
 import farearth.landsat.ldpc.decode.LdpcDecoderAccurate.LdpcDecoderAccurateContext;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
- * TODO: The algorithm here should be replace with the proper probability
- * propagating LDPC algorithm.
+ * Bit flipping decoder that, like {@link LdpcDecoderFast}, flips a bit with
+ * the most unsatisfied parity checks, but never returns to a set of flipped
+ * bits it has already tried. Among the bits with the most unsatisfied checks
+ * it first undoes an earlier flip, to keep the total flipped bits low, and
+ * otherwise flips a new bit; if every such move leads to a visited state it
+ * falls back to the bits with fewer unsatisfied checks. This escapes the flip
+ * cycles the fast decoder gives up on, at a higher cost per flip.
+ * <p>
+ * A set of flipped bits is identified by the XOR of a random 64 bit key per
+ * bit (Zobrist hashing), so a flip updates the state in constant time and the
+ * visited states are kept in a hashed set.
  *
  * @author anton
  * @param <ParityGraph>
  */
 public class LdpcDecoderAccurate<ParityGraph extends LdpcParityGraph> extends LdpcDecoder<ParityGraph, LdpcDecoderAccurateContext> {
 
+    private static final long KEY_SEED = 0x4C445043L;
+    private final long[] bitKeys; // [bit] = Zobrist key, shared by the contexts of all threads
+
     public LdpcDecoderAccurate(ParityGraph graph, boolean detectErrors, int maxErrorsToFix, int encoderBitBoundary) {
         super(graph, detectErrors, maxErrorsToFix, encoderBitBoundary);
+        Random random = new Random(KEY_SEED);
+        bitKeys = new long[getFrameSizes().getEncodedBitCount()];
+        for (int i = 0; i < bitKeys.length; i++) {
+            do {
+                bitKeys[i] = random.nextLong();
+            } while (bitKeys[i] == 0);
+        }
     }
 
     @Override
-    protected LdpcDecoderAccurateContext createContext(byte[] encodedBytes) {
-        return new LdpcDecoderAccurateContext();
+    protected LdpcDecoderAccurateContext createContext() {
+        return new LdpcDecoderAccurateContext(getGraph(), getFrameSizes().getVirtualBitCount(), getFrameSizes().getEncodedBitCount(),
+                bitKeys, Math.max(getMaxErrorsToFix(), 0));
     }
 
     @Override
-    protected Integer getNextBitToFlip(LdpcDecoderAccurateContext context) {
-        Map<Integer, Integer> errorBitConfidence = getBitConfidence(context.getParityErrorRows());
-        Map<Integer, List<Integer>> bitsByConfidence = getBitsByConfidence(errorBitConfidence);
-        Integer bitIndex = getNextBitToFlip(context.getPreviousFlippedStates(), bitsByConfidence);
-        return bitIndex;
-    }
-
-    private Map<Integer, Integer> getBitConfidence(List<Integer> rows) {
-        Map<Integer, Integer> errorBitConfidence = new HashMap<>();
-        ParityGraph graph = getGraph();
-        int virtualBitCount = getFrameSizes().getVirtualBitCount();
-        for (Integer row : rows) {
-            for (int i = 0; i < graph.getRowWeight(); i++) {
-                int bitIndex = graph.getColumn(row, i) - virtualBitCount;
-                if (bitIndex >= 0) { // virtual bits all zero
-                    Integer confidence = errorBitConfidence.get(bitIndex);
-                    if (confidence == null) {
-                        confidence = 10;
-                    } else {
-                        confidence--;
-                    }
-                    errorBitConfidence.put(bitIndex, confidence);
-                }
+    protected int correctErrors(LdpcDecoderAccurateContext context, long[] packed, int maxErrorsToFix) {
+        context.setParityErrors(getParityChecks(), packed);
+        int loop = 0;
+        while (context.getFailingRowCount() > 0 && loop < maxErrorsToFix) {
+            int bitIndex = context.getNextUnvisitedBit();
+            if (bitIndex < 0) {
+                break;
             }
+            context.flip(bitIndex);
+            loop++;
         }
-        return errorBitConfidence;
+        return loop;
     }
 
-    private Map<Integer, List<Integer>> getBitsByConfidence(Map<Integer, Integer> errorBitConfidence) {
-        Map<Integer, List<Integer>> bitsByConfidence = new TreeMap<>(); // natural order
-        for (Map.Entry<Integer, Integer> entry : errorBitConfidence.entrySet()) {
-            Integer bitIndex = entry.getKey();
-            Integer confidence = entry.getValue();
-            List<Integer> bits = bitsByConfidence.get(confidence);
-            if (bits == null) {
-                bits = new ArrayList<>();
-                bitsByConfidence.put(confidence, bits);
-            }
-            bits.add(bitIndex);
+    /**
+     * The fast decoder's parity state plus the hash of the flipped bits and
+     * the hashes of every state visited since the last reset.
+     */
+    public static class LdpcDecoderAccurateContext extends LdpcDecoderFast.LdpcDecoderFastContext {
+
+        private final long[] bitKeys;
+        private final long[] visited; // open addressing, 0 is an empty slot
+        private final int mask;
+        private long state = 0; // XOR of the keys of the flipped bits, 0 is the received codeword
+
+        /**
+         * @param graph
+         * @param virtualBitCount
+         * @param encodedBitCount
+         * @param bitKeys [bit] = non zero random key
+         * @param maxFlips the most states that will be visited between resets
+         */
+        public LdpcDecoderAccurateContext(LdpcParityGraph graph, int virtualBitCount, int encodedBitCount, long[] bitKeys, int maxFlips) {
+            super(graph, virtualBitCount, encodedBitCount);
+            this.bitKeys = bitKeys;
+            // at most half full
+            int capacity = Integer.highestOneBit(Math.max(maxFlips, 1) * 2) * 2;
+            this.visited = new long[capacity];
+            this.mask = capacity - 1;
         }
-        return bitsByConfidence;
-    }
 
-    private Integer getNextBitToFlip(List<List<Integer>> previousStates, Map<Integer, List<Integer>> bitsByConfidence) {
-        List<Integer> lastState = previousStates.isEmpty()
-                ? Collections.EMPTY_LIST
-                : previousStates.get(previousStates.size() - 1);
-        for (Map.Entry<Integer, List<Integer>> entry : bitsByConfidence.entrySet()) {
-            List<Integer> bits = entry.getValue();
-            List<Integer> unFlippedBits = new ArrayList<>();
-            // First check flipped bits, to keep total flipped bits low
-            for (Integer index : bits) {
-                List<Integer> newState = new ArrayList<>(lastState);
-                if (newState.remove(index)) {
-                    if (!previousStates.contains(newState)) {
-                        previousStates.add(newState);
-                        return index;
+        /**
+         * @return the bit to flip next, or -1 if every bit with an unsatisfied
+         * check leads to a state that was visited
+         */
+        public int getNextUnvisitedBit() {
+            for (int checks = getWorstBucket(); checks > 0; checks--) {
+                // first undo earlier flips, to keep the total flipped bits low
+                for (int bit = getBucketHead(checks); bit >= 0; bit = getNextInBucket(bit)) {
+                    if (isFlipped(bit) && !isVisited(state ^ bitKeys[bit])) {
+                        return bit;
                     }
-                } else {
-                    unFlippedBits.add(index);
                 }
-            }
-            for (Integer index : unFlippedBits) {
-                List<Integer> newState = new ArrayList<>(lastState);
-                newState.add(index);
-                if (!previousStates.contains(newState)) {
-                    previousStates.add(newState);
-                    return index;
+                for (int bit = getBucketHead(checks); bit >= 0; bit = getNextInBucket(bit)) {
+                    if (!isFlipped(bit) && !isVisited(state ^ bitKeys[bit])) {
+                        return bit;
+                    }
                 }
             }
+            return -1;
         }
-        return null;
-    }
-
-    public static class LdpcDecoderAccurateContext implements LdpcDecoderContext {
 
-        private final List<List<Integer>> previousFlippedStates = new ArrayList<>();
-        private List<Integer> parityErrorRows;
+        @Override
+        public void flip(int bitIndex) {
+            super.flip(bitIndex);
+            state ^= bitKeys[bitIndex];
+            markVisited(state);
+        }
 
-        public List<List<Integer>> getPreviousFlippedStates() {
-            return previousFlippedStates;
+        private boolean isVisited(long hash) {
+            if (hash == 0) {
+                return true; // the received codeword is where every search starts
+            }
+            for (int i = slot(hash); visited[i] != 0; i = (i + 1) & mask) {
+                if (visited[i] == hash) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        @Override
-        public void setParityErrorRows(List<Integer> rows) {
-            parityErrorRows = rows;
+        private void markVisited(long hash) {
+            if (hash == 0) {
+                return;
+            }
+            int i = slot(hash);
+            while (visited[i] != 0) {
+                if (visited[i] == hash) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            visited[i] = hash;
         }
 
-        public List<Integer> getParityErrorRows() {
-            return parityErrorRows;
+        private int slot(long hash) {
+            return (int) (hash ^ (hash >>> 32)) & mask;
         }
 
         @Override
-        public List<Integer> getFinalErrorBits() {
-            return previousFlippedStates.get(previousFlippedStates.size() - 1);
+        public void reset() {
+            super.reset();
+            state = 0;
+            Arrays.fill(visited, 0);
         }
     }
 }
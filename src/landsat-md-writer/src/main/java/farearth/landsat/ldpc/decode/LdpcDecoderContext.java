@@ -12,7 +12,27 @@ import java.util.List;
  */
 public interface LdpcDecoderContext {
 
-    public void setParityErrorRows(List<Integer> rows);
-
     public List<Integer> getFinalErrorBits();
+
+    /**
+     * Clears the context so it can be used for the next codeword.
+     */
+    public void reset();
+
+    /**
+     * @return true if all parity checks pass
+     */
+    public boolean isSolved();
+
+    /**
+     * @param errorBits receives the positions of the bits to flip
+     * @return the number of positions
+     */
+    public default int getFinalErrorBits(int[] errorBits) {
+        List<Integer> bits = getFinalErrorBits();
+        for (int i = 0; i < bits.size(); i++) {
+            errorBits[i] = bits.get(i);
+        }
+        return bits.size();
+    }
 }
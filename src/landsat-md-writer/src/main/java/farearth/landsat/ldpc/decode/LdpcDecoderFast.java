@@ -6,9 +6,14 @@ package farearth.landsat.ldpc.decode;
 
 import farearth.landsat.ldpc.decode.LdpcDecoderFast.LdpcDecoderFastContext;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
+ * Bit flipping decoder that repeatedly flips the bit with the most
+ * unsatisfied parity checks. The number of unsatisfied checks of every bit is
+ * kept up to date as bits are flipped, so a flip only touches the rows of the
+ * flipped bit and the bits in those rows.
  *
  * @author anton
  * @param <ParityGraph>
@@ -20,59 +25,271 @@ public class LdpcDecoderFast<ParityGraph extends LdpcParityGraph> extends LdpcDe
     }
 
     @Override
-    protected LdpcDecoderFastContext createContext(byte[] encodedBytes) {
-        return new LdpcDecoderFastContext();
+    protected LdpcDecoderFastContext createContext() {
+        return new LdpcDecoderFastContext(getGraph(), getFrameSizes().getVirtualBitCount(), getFrameSizes().getEncodedBitCount());
     }
 
     @Override
-    protected Integer getNextBitToFlip(LdpcDecoderFastContext context) {
-        byte[] errorCountForBit = new byte[getFrameSizes().getEncodedBitCount()];
-        int virtualBitCount = getFrameSizes().getVirtualBitCount();
-        int highest = 0;
-        int highestIndex = 0;
-        int[][] rowColumnMatrix = getGraph().getRowColumnMatrix();
-        int rowWeight = getGraph().getRowWeight();
-        List<Integer> rows = context.getParityErrorRows();
-        for (Integer row : rows) {
-            for (int i = 0; i < rowWeight; i++) {
-                int bitIndex = rowColumnMatrix[row][i] - virtualBitCount;
-                if (bitIndex >= 0) { // virtual bits all zero
-                    int count = ++errorCountForBit[bitIndex];
-                    if (count > highest) {
-                        highest = count;
-                        highestIndex = bitIndex;
-                    }
-                }
+    protected int correctErrors(LdpcDecoderFastContext context, long[] packed, int maxErrorsToFix) {
+        context.setParityErrors(getParityChecks(), packed);
+        int loop = 0;
+        while (context.getFailingRowCount() > 0 && loop < maxErrorsToFix) {
+            int bitIndex = context.getWorstBit();
+            if (bitIndex < 0) {
+                break;
             }
+            context.flip(bitIndex);
+            loop++;
         }
-        List<Integer> lastFlipped = context.getLastFlipped();
-        if (!lastFlipped.remove((Integer) highestIndex)) {
-            lastFlipped.add(highestIndex);
-        }
-        return highestIndex;
+        return loop;
     }
 
+    /**
+     * Tracks the parity check state of every row, the number of unsatisfied
+     * checks of every bit and the flipped bits. Bits are kept in buckets by
+     * their number of unsatisfied checks (doubly linked lists, new members at
+     * the tail) so the worst bit is found without a scan. A context is reused
+     * for many codewords, {@link #reset()} only clears what was touched.
+     * <p>
+     * Ties between the worst bits are broken as a scan of the failing rows
+     * would: the rows are ordered by when they started failing, and the bit
+     * that picks up its last unsatisfied check first in that order wins. The
+     * tie-break decides which codewords converge, so it is kept as is.
+     */
     public static class LdpcDecoderFastContext implements LdpcDecoderContext {
 
-        private final List<Integer> lastFlipped = new ArrayList<>();
-        private List<Integer> parityErrorRows;
+        private static final int NONE = -1;
+        private final LdpcParityGraph graph;
+        private final int virtualBitCount;
+        private final boolean[] rowFails; // [row]
+        private final int[] unsatisfied; // [bit] = unsatisfied checks
+        private final int[] flippedBits; // [index] = flipped bit
+        private final int[] flippedIndex; // [bit] = index in flippedBits, or NONE
+        private final int[] next; // [bit] = next bit in the same bucket
+        private final int[] previous; // [bit] = previous bit in the same bucket
+        private final int[] head; // [unsatisfied checks] = first bit
+        private final int[] tail; // [unsatisfied checks] = last bit
+        private final int[] rowStamp; // [row] = order in which the failing rows started failing
+        private int nextStamp = 0;
+        private int failingRows = 0;
+        private int worstBucket = 0;
+        private int flippedCount = 0;
 
-        public List<Integer> getLastFlipped() {
-            return lastFlipped;
+        public LdpcDecoderFastContext(LdpcParityGraph graph, int virtualBitCount, int encodedBitCount) {
+            this.graph = graph;
+            this.virtualBitCount = virtualBitCount;
+            rowFails = new boolean[graph.getRows()];
+            rowStamp = new int[graph.getRows()];
+            unsatisfied = new int[encodedBitCount];
+            flippedBits = new int[encodedBitCount];
+            flippedIndex = new int[encodedBitCount];
+            Arrays.fill(flippedIndex, NONE);
+            next = new int[encodedBitCount];
+            previous = new int[encodedBitCount];
+            head = new int[graph.getColumnWeight() + 1];
+            tail = new int[graph.getColumnWeight() + 1];
+            Arrays.fill(head, NONE);
+            Arrays.fill(tail, NONE);
         }
 
-        @Override
-        public void setParityErrorRows(List<Integer> rows) {
-            parityErrorRows = rows;
+        public int getFailingRowCount() {
+            return failingRows;
+        }
+
+        /**
+         * @return a bit with the most unsatisfied checks, or -1 if all checks
+         * are satisfied
+         */
+        public int getWorstBit() {
+            if (worstBucket == 0) {
+                return NONE;
+            }
+            int best = head[worstBucket];
+            int bestRow = getLastFailingRow(best);
+            for (int bit = next[best]; bit != NONE; bit = next[bit]) {
+                int row = getLastFailingRow(bit);
+                if (rowStamp[row] < rowStamp[bestRow]
+                        || row == bestRow && getPositionInRow(row, bit) < getPositionInRow(row, best)) {
+                    best = bit;
+                    bestRow = row;
+                }
+            }
+            return best;
+        }
+
+        private int getLastFailingRow(int bitIndex) {
+            int column = bitIndex + virtualBitCount;
+            int last = NONE;
+            for (int i = 0; i < graph.getColumnWeight(); i++) {
+                int row = graph.getRow(column, i);
+                if (rowFails[row] && (last == NONE || rowStamp[row] > rowStamp[last])) {
+                    last = row;
+                }
+            }
+            return last;
+        }
+
+        private int getPositionInRow(int row, int bitIndex) {
+            int[] columns = graph.getRowColumnMatrix()[row];
+            int column = bitIndex + virtualBitCount;
+            int position = 0;
+            while (columns[position] != column) {
+                position++;
+            }
+            return position;
+        }
+
+        /**
+         * @return the highest number of unsatisfied checks of any bit
+         */
+        public int getWorstBucket() {
+            return worstBucket;
+        }
+
+        /**
+         * @param unsatisfiedChecks
+         * @return the first bit with this number of unsatisfied checks, or -1
+         */
+        public int getBucketHead(int unsatisfiedChecks) {
+            return head[unsatisfiedChecks];
+        }
+
+        /**
+         * @param bitIndex
+         * @return the next bit with the same number of unsatisfied checks, or
+         * -1
+         */
+        public int getNextInBucket(int bitIndex) {
+            return next[bitIndex];
+        }
+
+        public boolean isFlipped(int bitIndex) {
+            return flippedIndex[bitIndex] != NONE;
+        }
+
+        /**
+         * Flips the bit, which toggles the parity of each of its rows.
+         *
+         * @param bitIndex
+         */
+        public void flip(int bitIndex) {
+            int index = flippedIndex[bitIndex];
+            if (index == NONE) {
+                flippedIndex[bitIndex] = flippedCount;
+                flippedBits[flippedCount++] = bitIndex;
+            } else {
+                int last = flippedBits[--flippedCount];
+                flippedBits[index] = last;
+                flippedIndex[last] = index;
+                flippedIndex[bitIndex] = NONE;
+            }
+            int column = bitIndex + virtualBitCount;
+            for (int i = 0; i < graph.getColumnWeight(); i++) {
+                toggleRow(graph.getRow(column, i));
+            }
+            while (worstBucket > 0 && head[worstBucket] == NONE) {
+                worstBucket--;
+            }
         }
 
-        public List<Integer> getParityErrorRows() {
-            return parityErrorRows;
+        private void toggleRow(int row) {
+            boolean fails = !rowFails[row];
+            rowFails[row] = fails;
+            failingRows += fails ? 1 : -1;
+            if (fails) {
+                rowStamp[row] = nextStamp++;
+            }
+            int delta = fails ? 1 : -1;
+            int[] columns = graph.getRowColumnMatrix()[row];
+            for (int column : columns) {
+                int bit = column - virtualBitCount;
+                if (bit >= 0) { // virtual bits all zero
+                    move(bit, unsatisfied[bit] + delta);
+                }
+            }
+        }
+
+        private void move(int bit, int count) {
+            int old = unsatisfied[bit];
+            if (old > 0) {
+                int p = previous[bit];
+                int n = next[bit];
+                if (p == NONE) {
+                    head[old] = n;
+                } else {
+                    next[p] = n;
+                }
+                if (n == NONE) {
+                    tail[old] = p;
+                } else {
+                    previous[n] = p;
+                }
+            }
+            unsatisfied[bit] = count;
+            if (count > 0) {
+                int t = tail[count];
+                previous[bit] = t;
+                next[bit] = NONE;
+                if (t == NONE) {
+                    head[count] = bit;
+                } else {
+                    next[t] = bit;
+                }
+                tail[count] = bit;
+                if (count > worstBucket) {
+                    worstBucket = count;
+                }
+            }
+        }
+
+        /**
+         * Marks the rows whose parity check fails on the codeword.
+         *
+         * @param checks
+         * @param packed
+         */
+        public void setParityErrors(LdpcPackedParityChecks checks, long[] packed) {
+            for (int r = 0; r < rowFails.length; r++) {
+                if (rowFails[r] != (checks.getParity(packed, r) != 0)) {
+                    toggleRow(r);
+                }
+            }
+        }
+
+        @Override
+        public boolean isSolved() {
+            return failingRows == 0;
         }
 
         @Override
         public List<Integer> getFinalErrorBits() {
-            return getLastFlipped();
+            List<Integer> bits = new ArrayList<>(flippedCount);
+            for (int i = 0; i < flippedCount; i++) {
+                bits.add(flippedBits[i]);
+            }
+            return bits;
+        }
+
+        @Override
+        public int getFinalErrorBits(int[] errorBits) {
+            System.arraycopy(flippedBits, 0, errorBits, 0, flippedCount);
+            return flippedCount;
+        }
+
+        @Override
+        public void reset() {
+            // clearing the failing rows brings every unsatisfied count back to zero
+            for (int r = 0; r < rowFails.length && failingRows > 0; r++) {
+                if (rowFails[r]) {
+                    toggleRow(r);
+                }
+            }
+            worstBucket = 0;
+            nextStamp = 0;
+            for (int i = 0; i < flippedCount; i++) {
+                flippedIndex[flippedBits[i]] = NONE;
+            }
+            flippedCount = 0;
         }
 
     }
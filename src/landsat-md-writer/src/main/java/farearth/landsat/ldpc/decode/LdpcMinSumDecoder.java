@@ -0,0 +1,201 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+import farearth.landsat.ldpc.LdpcFrameSizes;
+import java.util.Arrays;
+
+/**
+ * Soft decision decoder using layered normalized min-sum. The input is one
+ * signed byte per encoded bit, a log-likelihood ratio where a negative value
+ * means the bit is more likely a 1 and the magnitude is the confidence (e.g.
+ * a sign extended 3 or 4 bit demodulator soft symbol).
+ * <p>
+ * Every parity check row is a layer. Processing a row immediately updates the
+ * posterior of its bits, so the following rows of the same iteration already
+ * see the new values, which roughly halves the iterations compared to
+ * flooding. Virtual bits are known zeros and never affect a check.
+ *
+ * @author anton
+ * @param <ParityGraph>
+ */
+public class LdpcMinSumDecoder<ParityGraph extends LdpcParityGraph> {
+
+    private static final int LLR_SCALE = 8; // fractional headroom for the normalization
+    private static final int LLR_LIMIT = 1 << 16;
+    private final ParityGraph graph;
+    private final int maxIterations;
+    private final LdpcFrameSizes frameSizes;
+    private final int[] rowStart; // [row] = first edge of the row, [rows] = edge count
+    private final int[] edgeBits; // [edge] = codeword bit
+    // decoders are shared between threads, the scratch state is per thread
+    private final ThreadLocal<Workspace> workspaces;
+
+    /**
+     * @param graph The parity graph.
+     * @param maxIterations The maximum number of passes over all rows before
+     * the decoder gives up.
+     * @param encoderBitBoundary Determines what amount of padding bits were
+     * required before and after encoding.
+     */
+    public LdpcMinSumDecoder(ParityGraph graph, int maxIterations, int encoderBitBoundary) {
+        this.graph = graph;
+        this.maxIterations = maxIterations;
+        this.frameSizes = new LdpcFrameSizes(graph.getRows(), graph.getColumns(), encoderBitBoundary);
+        int rows = graph.getRows();
+        int virtualBitCount = frameSizes.getVirtualBitCount();
+        rowStart = new int[rows + 1];
+        int[] bits = new int[rows * graph.getRowWeight()];
+        int count = 0;
+        for (int r = 0; r < rows; r++) {
+            rowStart[r] = count;
+            for (int column : graph.getRowColumnMatrix()[r]) {
+                int bit = column - virtualBitCount;
+                if (bit >= 0) { // virtual bits all zero, their infinite confidence never matters
+                    bits[count++] = bit;
+                }
+            }
+        }
+        rowStart[rows] = count;
+        edgeBits = Arrays.copyOf(bits, count);
+        this.workspaces = ThreadLocal.withInitial(Workspace::new);
+    }
+
+    public ParityGraph getGraph() {
+        return graph;
+    }
+
+    public LdpcFrameSizes getFrameSizes() {
+        return frameSizes;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @return the number of soft symbols in an encoded frame, including the
+     * padding bits
+     */
+    public int getSoftFrameSize() {
+        return frameSizes.getEncodedByteCount() * 8;
+    }
+
+    /**
+     * @return an output buffer large enough for this decoder
+     */
+    public LdpcDecodeBuffer createDecodeBuffer() {
+        return new LdpcDecodeBuffer(frameSizes.getDecodedByteCount(), frameSizes.getEncodedBitCount());
+    }
+
+    /**
+     * Decodes one frame of soft symbols into a caller supplied buffer. The
+     * error bit positions are the bits whose hard decision was corrected and
+     * the decoding loops are the iterations used.
+     *
+     * @param softBits
+     * @param offset start of the frame in softBits
+     * @param buffer
+     * @return true if the info bytes are valid
+     */
+    public boolean decode(byte[] softBits, int offset, LdpcDecodeBuffer buffer) {
+        Workspace workspace = workspaces.get();
+        int[] llr = workspace.llr;
+        int bitCount = frameSizes.getEncodedBitCount();
+        for (int b = 0; b < bitCount; b++) {
+            llr[b] = softBits[offset + b] * LLR_SCALE;
+        }
+        Arrays.fill(workspace.messages, 0);
+        int rows = graph.getRows();
+        int iteration = 0;
+        boolean solved = isCodeword(llr);
+        while (!solved && iteration < maxIterations) {
+            iteration++;
+            for (int r = 0; r < rows; r++) {
+                updateRow(workspace, r);
+            }
+            solved = isCodeword(llr);
+        }
+        if (!solved) {
+            buffer.set(false, iteration, 0);
+            return false;
+        }
+        byte[] decoded = buffer.getDecodedBytes();
+        for (int i = 0; i < decoded.length; i++) {
+            int value = 0;
+            for (int b = i * 8, end = b + 8; b < end; b++) {
+                value = (value << 1) | (llr[b] >>> 31);
+            }
+            decoded[i] = (byte) value;
+        }
+        int[] errorBits = buffer.getErrorBitPositions();
+        int errorBitCount = 0;
+        for (int b = 0; b < bitCount; b++) {
+            if ((softBits[offset + b] < 0) != (llr[b] < 0)) {
+                errorBits[errorBitCount++] = b;
+            }
+        }
+        buffer.set(true, iteration, errorBitCount);
+        return true;
+    }
+
+    private void updateRow(Workspace workspace, int row) {
+        int[] llr = workspace.llr;
+        int[] messages = workspace.messages;
+        int[] q = workspace.q;
+        int start = rowStart[row];
+        int end = rowStart[row + 1];
+        int min1 = Integer.MAX_VALUE;
+        int min2 = Integer.MAX_VALUE;
+        int minEdge = -1;
+        int negative = 0;
+        for (int e = start; e < end; e++) {
+            int value = llr[edgeBits[e]] - messages[e];
+            q[e - start] = value;
+            int magnitude = Math.abs(value);
+            if (magnitude < min2) {
+                if (magnitude < min1) {
+                    min2 = min1;
+                    min1 = magnitude;
+                    minEdge = e;
+                } else {
+                    min2 = magnitude;
+                }
+            }
+            negative ^= value;
+        }
+        // normalize by 3/4 to make up for min-sum overestimating the check confidence
+        int scaled1 = (min1 * 3) >> 2;
+        int scaled2 = min2 == Integer.MAX_VALUE ? scaled1 : (min2 * 3) >> 2;
+        for (int e = start; e < end; e++) {
+            int value = q[e - start];
+            int sign = (negative ^ value) >> 31; // -1 if the product of the other signs is negative
+            int message = ((e == minEdge ? scaled2 : scaled1) ^ sign) - sign;
+            messages[e] = message;
+            llr[edgeBits[e]] = Math.max(-LLR_LIMIT, Math.min(LLR_LIMIT, value + message));
+        }
+    }
+
+    private boolean isCodeword(int[] llr) {
+        int rows = rowStart.length - 1;
+        for (int r = 0; r < rows; r++) {
+            int parity = 0;
+            for (int e = rowStart[r], end = rowStart[r + 1]; e < end; e++) {
+                parity ^= llr[edgeBits[e]];
+            }
+            if (parity < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class Workspace {
+
+        private final int[] llr = new int[frameSizes.getEncodedBitCount()]; // [bit] = posterior
+        private final int[] messages = new int[edgeBits.length]; // [edge] = check to bit message
+        private final int[] q = new int[graph.getRowWeight()]; // bit to check messages of the current row
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+import java.util.Arrays;
+
+/**
+ * Parity checks on a codeword packed into longs, most significant bit first.
+ * Every row of the parity matrix is stored as the (word, mask) pairs that
+ * cover its set columns, so the parity of a row is the bit count parity of
+ * the XOR of a handful of masked words instead of a sum over single bits.
+ * Virtual (always zero) columns are left out of the masks.
+ *
+ * @author anton
+ */
+public class LdpcPackedParityChecks {
+
+    private final int encodedByteCount;
+    private final int wordCount;
+    private final int[] rowStart; // [row] = index of the first pair of the row, [rows] = pair count
+    private final int[] pairWords; // [pair] = word index in the packed codeword
+    private final long[] pairMasks; // [pair] = set columns of the row in that word
+
+    public LdpcPackedParityChecks(LdpcParityGraph graph, int virtualBitCount, int encodedByteCount) {
+        int rows = graph.getRows();
+        int rowWeight = graph.getRowWeight();
+        int[][] rowColumnMatrix = graph.getRowColumnMatrix();
+        this.encodedByteCount = encodedByteCount;
+        wordCount = (encodedByteCount + Long.BYTES - 1) / Long.BYTES;
+        rowStart = new int[rows + 1];
+        int[] words = new int[rows * rowWeight];
+        long[] masks = new long[rows * rowWeight];
+        int pairs = 0;
+        int[] bits = new int[rowWeight];
+        for (int r = 0; r < rows; r++) {
+            rowStart[r] = pairs;
+            int bitCount = 0;
+            for (int n = 0; n < rowWeight; n++) {
+                int bitNum = rowColumnMatrix[r][n] - virtualBitCount;
+                if (bitNum >= 0) { // virtual bits all zero
+                    bits[bitCount++] = bitNum;
+                }
+            }
+            Arrays.sort(bits, 0, bitCount);
+            for (int i = 0; i < bitCount; i++) {
+                int word = bits[i] >>> 6;
+                long mask = 1L << (63 - (bits[i] & 63));
+                if (pairs > rowStart[r] && words[pairs - 1] == word) {
+                    masks[pairs - 1] |= mask;
+                } else {
+                    words[pairs] = word;
+                    masks[pairs] = mask;
+                    pairs++;
+                }
+            }
+        }
+        rowStart[rows] = pairs;
+        pairWords = Arrays.copyOf(words, pairs);
+        pairMasks = Arrays.copyOf(masks, pairs);
+    }
+
+    /**
+     * @return the number of longs a packed codeword needs
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getRows() {
+        return rowStart.length - 1;
+    }
+
+    /**
+     * Packs the codeword bytes into big endian longs, zero filling the last
+     * word.
+     *
+     * @param bytes
+     * @param offset start of the codeword in bytes
+     * @param packed at least {@link #getWordCount()} long
+     */
+    public void pack(byte[] bytes, int offset, long[] packed) {
+        pack(bytes, offset, packed, null);
+    }
+
+    /**
+     * Packs the codeword bytes into big endian longs, zero filling the last
+     * word, and derandomizes every word as it is packed.
+     *
+     * @param bytes
+     * @param offset start of the codeword in bytes
+     * @param packed at least {@link #getWordCount()} long
+     * @param randomizerWords the randomizer sequence packed the same way (see
+     * {@link farearth.landsat.util.SequenceRandomizer#createCcsdsMaskWords(int)}),
+     * null if the codeword is not randomized
+     */
+    public void pack(byte[] bytes, int offset, long[] packed, long[] randomizerWords) {
+        int byteCount = Math.min(bytes.length - offset, encodedByteCount);
+        int fullWords = byteCount / Long.BYTES;
+        for (int w = 0, b = offset; w < fullWords; w++, b += Long.BYTES) {
+            packed[w] = (bytes[b] & 0xFFL) << 56
+                    | (bytes[b + 1] & 0xFFL) << 48
+                    | (bytes[b + 2] & 0xFFL) << 40
+                    | (bytes[b + 3] & 0xFFL) << 32
+                    | (bytes[b + 4] & 0xFFL) << 24
+                    | (bytes[b + 5] & 0xFFL) << 16
+                    | (bytes[b + 6] & 0xFFL) << 8
+                    | (bytes[b + 7] & 0xFFL);
+            if (randomizerWords != null) {
+                packed[w] ^= randomizerWords[w];
+            }
+        }
+        for (int w = fullWords; w < wordCount; w++) {
+            long word = 0;
+            for (int b = w * Long.BYTES, shift = 56; shift >= 0; b++, shift -= 8) {
+                if (b < byteCount) {
+                    word |= (bytes[offset + b] & 0xFFL) << shift;
+                }
+            }
+            packed[w] = randomizerWords == null ? word : word ^ randomizerWords[w];
+        }
+    }
+
+    /**
+     * Writes the first bytes of a packed codeword back out as bytes.
+     *
+     * @param packed
+     * @param bytes
+     * @param count the number of bytes, from the start of the codeword
+     */
+    public static void unpack(long[] packed, byte[] bytes, int count) {
+        int fullWords = count / Long.BYTES;
+        for (int w = 0, b = 0; w < fullWords; w++, b += Long.BYTES) {
+            long word = packed[w];
+            bytes[b] = (byte) (word >>> 56);
+            bytes[b + 1] = (byte) (word >>> 48);
+            bytes[b + 2] = (byte) (word >>> 40);
+            bytes[b + 3] = (byte) (word >>> 32);
+            bytes[b + 4] = (byte) (word >>> 24);
+            bytes[b + 5] = (byte) (word >>> 16);
+            bytes[b + 6] = (byte) (word >>> 8);
+            bytes[b + 7] = (byte) word;
+        }
+        for (int b = fullWords * Long.BYTES; b < count; b++) {
+            bytes[b] = (byte) (packed[b >>> 3] >>> (56 - 8 * (b & 7)));
+        }
+    }
+
+    public static void flipBit(long[] packed, int bitNum) {
+        packed[bitNum >>> 6] ^= 1L << (63 - (bitNum & 63));
+    }
+
+    /**
+     * @param packed
+     * @param row
+     * @return 1 if the parity check of the row fails, 0 otherwise
+     */
+    public int getParity(long[] packed, int row) {
+        long sum = 0;
+        for (int p = rowStart[row], end = rowStart[row + 1]; p < end; p++) {
+            sum ^= packed[pairWords[p]] & pairMasks[p];
+        }
+        return Long.bitCount(sum) & 1;
+    }
+
+    /**
+     * @param packed
+     * @param rows the number of rows, starting at the first, to check
+     * @return true if the parity checks of all these rows pass
+     */
+    public boolean isCodeword(long[] packed, int rows) {
+        for (int r = 0; r < rows; r++) {
+            if (getParity(packed, r) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -72,24 +72,19 @@ public class LdpcParityGraph<T extends LdpcParityMatrix> {
         rowBitNum = new int[width][columnWeight];
 
         int[] columnBitNums = new int[width];
-        byte[][] matrix = parityMatrix.getRawMatrix(); // for performance
-        for (int r = 0; r < matrix.length; r++) { // rows
-            byte[] row = matrix[r];
-            int rBitNum = 0;
-            for (int c = 0; c < row.length; c++) { // columns
-                byte value = row[c];
-                if (value != 0) {
-                    int cBitNum = columnBitNums[c];
-
-                    rowBitCol[r][rBitNum] = c;
-                    colBitNum[r][rBitNum] = cBitNum;
-
-                    colBitRow[c][cBitNum] = r;
-                    rowBitNum[c][cBitNum] = rBitNum;
-
-                    rBitNum++;
-                    columnBitNums[c]++;
-                }
+        for (int r = 0; r < height; r++) { // rows, the matrix lists the set bits so it never has to be expanded
+            int[] columns = parityMatrix.getRowColumns(r);
+            for (int rBitNum = 0; rBitNum < columns.length; rBitNum++) {
+                int c = columns[rBitNum];
+                int cBitNum = columnBitNums[c];
+
+                rowBitCol[r][rBitNum] = c;
+                colBitNum[r][rBitNum] = cBitNum;
+
+                colBitRow[c][cBitNum] = r;
+                rowBitNum[c][cBitNum] = rBitNum;
+
+                columnBitNums[c]++;
             }
         }
     }
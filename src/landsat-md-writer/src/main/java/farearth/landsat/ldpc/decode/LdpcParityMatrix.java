@@ -4,6 +4,7 @@
  */
 package farearth.landsat.ldpc.decode;
 
+import farearth.landsat.ldpc.LdpcCirculantMatrix;
 import farearth.landsat.ldpc.LdpcMatrix;
 
 /**
@@ -15,4 +16,8 @@ public abstract class LdpcParityMatrix extends LdpcMatrix {
     public LdpcParityMatrix(int width, int height) {
         super(width, height);
     }
+
+    public LdpcParityMatrix(LdpcCirculantMatrix circulants) {
+        super(circulants);
+    }
 }
@@ -0,0 +1,536 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.decode;
+
+import farearth.landsat.ldpc.decode.LdpcDecodeBudget.Level;
+import farearth.landsat.util.SequenceRandomizer;
+import farearth.landsat.util.ThreadUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes a continuous stream of LDPC frames on a dedicated thread pool. A
+ * batch of frames is decoded as soon as it is full and the results are
+ * released in submission order, so a slow batch only holds back the batches
+ * behind it up to the in-flight limit.
+ * <p>
+ * Frames are decoded in batches so that the parity checks of a whole batch
+ * run at once (see {@link LdpcDecoder#decode(byte[][], int, LdpcDecodeBuffer[])}).
+ * Every in-flight batch occupies one of a fixed ring of slots that holds the
+ * encoded frames and their decode buffers, so frames are decoded without
+ * allocating.
+ * <p>
+ * The error correction budget of a batch is set by a {@link LdpcDecodeBudget}
+ * from the backlog when the batch is dispatched. Frames that fail on a lowered
+ * budget are copied to a low priority retry pool, which decodes them with the
+ * full budget while the clean frames behind them carry on. With a fallback
+ * decoder the retry pool also takes the frames that fail on the full budget
+ * and tries them again with the fallback, typically a slower decoder that
+ * corrects more errors (see {@link LdpcDecoderAccurate}). Recovered frames
+ * take their original place in the output.
+ *
+ * @author anton
+ */
+public class PipelinedLdpcDecoder implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedLdpcDecoder.class);
+    private final LdpcDecoder delegate;
+    private final LdpcDecoder fallback; // null if failed frames are only retried with the full budget
+    private final long[] randomizerWords; // null if the frames are not randomized
+    private final int threads;
+    private final int encodedByteCount;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final Slot[] slots;
+    private final LdpcDecodeBudget budget;
+    private final ExecutorService retryExecutor;
+    private final BlockingQueue<Retry> idleRetries;
+    // [level] = frames
+    private final AtomicLongArray decodedFrames = new AtomicLongArray(Level.values().length);
+    private final AtomicLongArray deferredFrames = new AtomicLongArray(Level.values().length);
+    private final AtomicLongArray retriedFrames = new AtomicLongArray(Level.values().length);
+    private final AtomicLongArray abandonedFrames = new AtomicLongArray(Level.values().length);
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private Slot filling = null;
+    private long submitted = 0; // batches
+    private long released = 0; // batches
+    private long frames = 0;
+    private long startNanos = -1;
+    private long stopNanos = -1;
+    private long reorderDepthSum = 0;
+    private long maxReorderDepth = 0;
+
+    /**
+     * @param delegate
+     * @param derandomize
+     * @param threads size of the decoder pool
+     * @param batchSize frames per batch, at most {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @param maxInFlight maximum number of batches that have not been
+     * released yet, submit() blocks once it is reached
+     */
+    public PipelinedLdpcDecoder(LdpcDecoder delegate, boolean derandomize, int threads, int batchSize, int maxInFlight) {
+        this(delegate, derandomize, threads, batchSize, maxInFlight, LdpcDecodeBudget.fullEffort());
+    }
+
+    /**
+     * @param delegate
+     * @param derandomize
+     * @param threads size of the decoder pool
+     * @param batchSize frames per batch, at most {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @param maxInFlight maximum number of batches that have not been
+     * released yet, submit() blocks once it is reached
+     * @param budget lowers the error correction budget as the backlog grows
+     */
+    public PipelinedLdpcDecoder(LdpcDecoder delegate, boolean derandomize, int threads, int batchSize, int maxInFlight, LdpcDecodeBudget budget) {
+        this(delegate, null, derandomize, threads, batchSize, maxInFlight, budget);
+    }
+
+    /**
+     * @param delegate
+     * @param fallback decodes the frames that the delegate cannot on the retry
+     * pool, null for none
+     * @param derandomize
+     * @param threads size of the decoder pool, the retry pool gets half as
+     * many threads at a lower priority
+     * @param batchSize frames per batch, at most {@link LdpcBitSlicedChecks#BATCH_SIZE}
+     * @param maxInFlight maximum number of batches that have not been
+     * released yet, submit() blocks once it is reached
+     * @param budget lowers the error correction budget as the backlog grows
+     * and limits the frames waiting for a retry
+     */
+    public PipelinedLdpcDecoder(LdpcDecoder delegate, LdpcDecoder fallback, boolean derandomize, int threads, int batchSize, int maxInFlight, LdpcDecodeBudget budget) {
+        if (threads < 1 || maxInFlight < 1 || batchSize < 1 || batchSize > LdpcBitSlicedChecks.BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid pipeline size: threads=%d, batchSize=%d, maxInFlight=%d", threads, batchSize, maxInFlight));
+        }
+        this.delegate = delegate;
+        this.fallback = fallback;
+        this.threads = threads;
+        this.encodedByteCount = delegate.getFrameSizes().getEncodedByteCount();
+        this.randomizerWords = derandomize ? SequenceRandomizer.createCcsdsMaskWords(encodedByteCount) : null;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool(threads, ThreadUtils.createThreadFactory("ldpc-decoder-%d"));
+        this.slots = new Slot[maxInFlight];
+        for (int i = 0; i < maxInFlight; i++) {
+            slots[i] = new Slot();
+        }
+        this.budget = budget;
+        // without a fallback only frames that failed on a lowered budget are retried
+        boolean retries = fallback != null || budget.getLevel(maxInFlight) != Level.Normal;
+        if (retries && budget.getMaxRetries() > 0) {
+            this.retryExecutor = Executors.newFixedThreadPool(Math.max(1, threads / 2), ThreadUtils.createThreadFactory("ldpc-retry-%d", Thread.MIN_PRIORITY));
+            this.idleRetries = new ArrayBlockingQueue<>(budget.getMaxRetries());
+            for (int i = 0; i < budget.getMaxRetries(); i++) {
+                idleRetries.add(new Retry());
+            }
+        } else {
+            this.retryExecutor = null;
+            this.idleRetries = null;
+        }
+    }
+
+    public LdpcDecoder getDelegate() {
+        return delegate;
+    }
+
+    public LdpcDecoder getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @return a decode buffer that can hold the corrections of the delegate
+     * and the fallback
+     */
+    private LdpcDecodeBuffer createDecodeBuffer() {
+        int maxErrorsToFix = Math.max(delegate.getMaxErrorsToFix(), fallback == null ? 0 : fallback.getMaxErrorsToFix());
+        return new LdpcDecodeBuffer(delegate.getFrameSizes().getDecodedByteCount(), Math.max(maxErrorsToFix, 0));
+    }
+
+    /**
+     * Copies a frame from the buffer into the current batch and submits the
+     * batch for decoding once it is full, then passes every result that is
+     * ready, in order, to the handler. The buffer position is moved past the
+     * frame.
+     *
+     * @param encodedFrame
+     * @param handler
+     * @throws IOException
+     */
+    public void submit(ByteBuffer encodedFrame, ResultHandler handler) throws IOException {
+        if (startNanos < 0) {
+            startNanos = System.nanoTime();
+        }
+        if (filling == null) {
+            if (submitted - released >= slots.length) {
+                release(handler, false);
+            }
+            filling = slots[(int) (submitted % slots.length)];
+            filling.count = 0;
+        }
+        encodedFrame.get(filling.encoded[filling.count++]);
+        if (filling.count == batchSize) {
+            dispatch(handler);
+        }
+    }
+
+    private void dispatch(ResultHandler handler) throws IOException {
+        filling.done = false;
+        submitted++;
+        filling.level = budget.getLevel(submitted - released);
+        executor.execute(filling);
+        filling = null;
+        while (released < submitted && slots[(int) (released % slots.length)].done) {
+            release(handler, false);
+        }
+        // everything that completed but was not released waits for a slower frame
+        long reorderDepth = completed.get() - released;
+        reorderDepthSum += reorderDepth;
+        if (reorderDepth > maxReorderDepth) {
+            maxReorderDepth = reorderDepth;
+        }
+    }
+
+    /**
+     * Waits for all submitted frames and passes their results, in order, to
+     * the handler.
+     *
+     * @param handler
+     * @throws IOException
+     */
+    public void flush(ResultHandler handler) throws IOException {
+        if (filling != null) {
+            dispatch(handler);
+        }
+        while (released < submitted) {
+            release(handler, true);
+        }
+        stopNanos = System.nanoTime();
+    }
+
+    /**
+     * @param handler
+     * @param draining true to wait for the retries of the slot regardless of
+     * the backlog
+     * @throws IOException
+     */
+    private void release(ResultHandler handler, boolean draining) throws IOException {
+        Slot slot = slots[(int) (released % slots.length)];
+        try {
+            slot.await();
+            // only hold up the frames behind a deferred frame once the backlog has drained
+            boolean waitForRetries = draining || budget.getLevel(submitted - released) == Level.Normal;
+            released++;
+            if (slot.error != null) {
+                // the retries of the frames deferred before the error go back to the pool
+                for (int i = 0; i < slot.count; i++) {
+                    if (slot.retries[i] != null) {
+                        slot.retries[i].discard();
+                        slot.retries[i] = null;
+                    }
+                }
+                throw new IOException("Failed to decode LDPC frames", slot.error);
+            }
+            int level = slot.level.ordinal();
+            for (int i = 0; i < slot.count; i++) {
+                Retry retry = slot.retries[i];
+                if (retry != null) {
+                    slot.retries[i] = null;
+                    if (retry.resolve(waitForRetries, slot.buffers[i])) {
+                        retriedFrames.incrementAndGet(level);
+                    } else {
+                        abandonedFrames.incrementAndGet(level);
+                    }
+                }
+                frames++;
+                handler.handle(slot.buffers[i]);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an LDPC frame", ex);
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxInFlight() {
+        return slots.length;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return fraction of the pool's thread time that was spent decoding
+     * between the first submit and the last flush
+     */
+    public double getUtilisation() {
+        if (startNanos < 0) {
+            return 0;
+        }
+        long end = stopNanos < 0 ? System.nanoTime() : stopNanos;
+        long available = (end - startNanos) * threads;
+        return available > 0 ? (double) busyNanos.get() / available : 0;
+    }
+
+    public double getMeanReorderDepth() {
+        return released > 0 ? (double) reorderDepthSum / released : 0;
+    }
+
+    public long getMaxReorderDepth() {
+        return maxReorderDepth;
+    }
+
+    public LdpcDecodeBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param level
+     * @return frames that decoded on the budget of the level
+     */
+    public long getDecodedCount(Level level) {
+        return decodedFrames.get(level.ordinal());
+    }
+
+    /**
+     * @param level
+     * @return frames that failed on the budget of the level, or on the full
+     * budget if there is a fallback, and were handed to the retry pool
+     */
+    public long getDeferredCount(Level level) {
+        return deferredFrames.get(level.ordinal());
+    }
+
+    /**
+     * @param level
+     * @return deferred frames that the retry pool decoded in time, with the
+     * full budget or the fallback
+     */
+    public long getRetriedCount(Level level) {
+        return retriedFrames.get(level.ordinal());
+    }
+
+    /**
+     * @param level
+     * @return frames that were released undecoded, because no decoder could
+     * correct them, the retry pool was full or the retry was not done in time
+     */
+    public long getAbandonedCount(Level level) {
+        return abandonedFrames.get(level.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder(String.format("%d frames in %d batches on %d threads, utilisation %.0f%%, reorder depth mean %.1f max %d batches (limit %d)",
+                frames, released, threads, 100 * getUtilisation(), getMeanReorderDepth(), maxReorderDepth, slots.length));
+        for (Level level : Level.values()) {
+            long decoded = getDecodedCount(level);
+            long deferred = getDeferredCount(level);
+            long abandoned = getAbandonedCount(level);
+            if (decoded + deferred + abandoned > 0) {
+                summary.append(String.format(", %s: %d decoded, %d deferred, %d retried, %d abandoned",
+                        level, decoded, deferred, getRetriedCount(level), abandoned));
+            }
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        if (retryExecutor != null) {
+            retryExecutor.shutdownNow();
+        }
+    }
+
+    public static interface ResultHandler {
+
+        /**
+         * @param result only valid for the duration of the call, the buffer is
+         * reused for a later frame
+         * @throws IOException
+         */
+        void handle(LdpcDecodeBuffer result) throws IOException;
+    }
+
+    private class Slot implements Runnable {
+
+        private final byte[][] encoded = new byte[batchSize][encodedByteCount];
+        private final LdpcDecodeBuffer[] buffers = new LdpcDecodeBuffer[batchSize];
+        private final Retry[] retries = new Retry[batchSize]; // [frame] = retry of a deferred frame
+        private int count;
+        private Level level;
+        private volatile boolean done = true;
+        private RuntimeException error;
+
+        private Slot() {
+            for (int i = 0; i < batchSize; i++) {
+                buffers[i] = createDecodeBuffer();
+            }
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            error = null;
+            try {
+                // the frames are derandomized as they are packed for decoding
+                delegate.decode(encoded, count, buffers, budget.getMaxErrorsToFix(level, delegate.getMaxErrorsToFix()), randomizerWords);
+                long decoded = 0;
+                long deferred = 0;
+                for (int i = 0; i < count; i++) {
+                    if (buffers[i].isSuccess()) {
+                        decoded++;
+                    } else if ((level != Level.Normal || fallback != null) && defer(i)) {
+                        deferred++;
+                    }
+                }
+                decodedFrames.addAndGet(level.ordinal(), decoded);
+                deferredFrames.addAndGet(level.ordinal(), deferred);
+                abandonedFrames.addAndGet(level.ordinal(), count - decoded - deferred);
+            } catch (RuntimeException ex) {
+                error = ex;
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                completed.incrementAndGet();
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        private boolean defer(int frame) {
+            Retry retry = idleRetries == null ? null : idleRetries.poll();
+            if (retry == null) {
+                return false;
+            }
+            retries[frame] = retry;
+            retry.submit(encoded[frame], level != Level.Normal);
+            return true;
+        }
+
+        private synchronized void await() throws InterruptedException {
+            while (!done) {
+                wait();
+            }
+        }
+    }
+
+    private static enum RetryState {
+
+        Idle, Queued, Running, Done, Cancelled
+    }
+
+    /**
+     * A deferred frame, decoded on the retry pool with the full budget if it
+     * failed on a lowered one and then with the fallback. A retry that is
+     * cancelled while it runs is recycled by the retry thread once it
+     * finishes.
+     */
+    private class Retry implements Runnable {
+
+        private final byte[] encoded = new byte[encodedByteCount];
+        private final LdpcDecodeBuffer buffer = createDecodeBuffer();
+        private boolean fullBudget;
+        private RetryState state = RetryState.Idle;
+
+        /**
+         * @param encodedFrame
+         * @param fullBudget true if the frame only had a lowered budget
+         */
+        private void submit(byte[] encodedFrame, boolean fullBudget) {
+            System.arraycopy(encodedFrame, 0, encoded, 0, encodedByteCount);
+            synchronized (this) {
+                this.fullBudget = fullBudget;
+                state = RetryState.Queued;
+            }
+            retryExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (state == RetryState.Cancelled) {
+                    recycle();
+                    return;
+                }
+                state = RetryState.Running;
+            }
+            try {
+                boolean success = fullBudget && delegate.decode(encoded, 0, buffer, delegate.getMaxErrorsToFix(), randomizerWords);
+                if (!success && fallback != null) {
+                    fallback.decode(encoded, 0, buffer, fallback.getMaxErrorsToFix(), randomizerWords);
+                }
+            } catch (RuntimeException ex) {
+                LOG.warn("Failed to retry an LDPC frame", ex);
+                buffer.set(false, 0, 0);
+            }
+            synchronized (this) {
+                if (state == RetryState.Cancelled) {
+                    recycle();
+                } else {
+                    state = RetryState.Done;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @param wait
+         * @param target receives the decoded frame
+         * @return true if the retry decoded the frame
+         * @throws InterruptedException
+         */
+        private synchronized boolean resolve(boolean wait, LdpcDecodeBuffer target) throws InterruptedException {
+            while (wait && state != RetryState.Done) {
+                wait();
+            }
+            if (state != RetryState.Done) {
+                state = RetryState.Cancelled;
+                return false;
+            }
+            boolean success = buffer.isSuccess();
+            if (success) {
+                target.copyFrom(buffer);
+            }
+            recycle();
+            return success;
+        }
+
+        /**
+         * Drops the result of the retry, the retry thread recycles it if it
+         * has not finished yet.
+         */
+        private synchronized void discard() {
+            if (state == RetryState.Done) {
+                recycle();
+            } else {
+                state = RetryState.Cancelled;
+            }
+        }
+
+        private void recycle() {
+            state = RetryState.Idle;
+            idleRetries.add(this);
+        }
+    }
+
+}
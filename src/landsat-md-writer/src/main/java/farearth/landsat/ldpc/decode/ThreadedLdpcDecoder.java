@@ -4,7 +4,6 @@
  */
 package farearth.landsat.ldpc.decode;
 
-import farearth.landsat.ldpc.LdpcFrameSizes;
 import farearth.landsat.util.SequenceRandomizer;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -16,23 +15,27 @@ import java.util.stream.Collectors;
 public class ThreadedLdpcDecoder {
 
     private final LdpcDecoder delegate;
+    private final long[] randomizerWords;
 
     public ThreadedLdpcDecoder(LdpcDecoder delegate) {
         this.delegate = delegate;
+        this.randomizerWords = SequenceRandomizer.createCcsdsMaskWords(delegate.getFrameSizes().getEncodedByteCount());
     }
 
     public LdpcDecoder getDelegate() {
         return delegate;
     }
 
+    /**
+     * @param encodedFrames left as they are, derandomizing happens while a
+     * frame is packed for decoding
+     * @param derandomize
+     * @return
+     */
     public List<LdpcDecodeResult> decode(List<byte[]> encodedFrames, boolean derandomize) {
-        LdpcFrameSizes frameSizes = delegate.getFrameSizes();
-        int encodedByteCount = frameSizes.getEncodedByteCount();
-        return encodedFrames.parallelStream().map(frame -> {
-            if (derandomize) {
-                SequenceRandomizer.encodeCcsdsInplace(frame, 0, encodedByteCount);
-            }
-            return delegate.decode(frame);
-        }).collect(Collectors.toList()); // order is guaranteed even if parallel
+        long[] mask = derandomize ? randomizerWords : null;
+        return encodedFrames.parallelStream()
+                .map(frame -> delegate.decode(frame, mask))
+                .collect(Collectors.toList()); // order is guaranteed even if parallel
     }
 }
@@ -0,0 +1,18 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.encode;
+
+import farearth.landsat.ldpc.Landsat8LdpcCodes;
+
+/**
+ *
+ * @author anton
+ */
+public class Landsat8LdpcCirculantEncoder extends LdpcCirculantEncoder {
+
+    public Landsat8LdpcCirculantEncoder() {
+        super(Landsat8LdpcCodes.getGeneratorMatrix(), Landsat8LdpcCodes.getFrameSizes());
+    }
+}
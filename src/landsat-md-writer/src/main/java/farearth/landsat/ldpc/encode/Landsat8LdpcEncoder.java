@@ -4,7 +4,7 @@
  */
 package farearth.landsat.ldpc.encode;
 
-import farearth.landsat.ldpc.Landsat8LdpcConstants.Parity;
+import farearth.landsat.ldpc.Landsat8LdpcCodes;
 
 /**
  *
@@ -13,6 +13,6 @@ import farearth.landsat.ldpc.Landsat8LdpcConstants.Parity;
 public class Landsat8LdpcEncoder extends LdpcEncoder<Landsat8LdpcGeneratorMatrix> {
 
     public Landsat8LdpcEncoder() {
-        super(new Landsat8LdpcGeneratorMatrix(), Parity.MATRIX_HEIGHT, Parity.MATRIX_WIDTH);
+        super(Landsat8LdpcCodes.getGeneratorMatrix(), Landsat8LdpcCodes.getFrameSizes(), Landsat8LdpcCodes.getCompactGeneratorMatrix());
     }
 }
@@ -6,7 +6,7 @@ package farearth.landsat.ldpc.encode;
 
 import static farearth.landsat.ldpc.Landsat8LdpcConstants.CIRCULANT_SIZE;
 import farearth.landsat.ldpc.Landsat8LdpcConstants.Generator;
-import farearth.landsat.ldpc.LdpcCirculantFactory;
+import farearth.landsat.ldpc.LdpcCirculantMatrix;
 import farearth.landsat.util.BitUtils;
 
 /**
@@ -16,22 +16,28 @@ import farearth.landsat.util.BitUtils;
 public class Landsat8LdpcGeneratorMatrix extends LdpcGeneratorMatrix {
 
     public Landsat8LdpcGeneratorMatrix() {
-        super(Generator.MATRIX_WIDTH, Generator.MATRIX_HEIGHT);
+        super(createCirculants());
     }
 
     @Override
     protected void populateCirculants(byte[][] matrix) {
+        getCirculants().get().populate(matrix);
+    }
+
+    private static LdpcCirculantMatrix createCirculants() {
         final int circRows = Generator.IDENTITY_SIZE;
         final int circCols = circRows + Generator.CIRCULANT_COLUMNS;
-        LdpcCirculantFactory circulantFactory = new LdpcCirculantFactory();
+        int[][][] firstRows = new int[circRows][circCols][];
         for (int circRow = 0; circRow < circRows; circRow++) { // 0; < 14
+            for (int circCol = 0; circCol < circRows; circCol++) {
+                firstRows[circRow][circCol] = circRow == circCol ? new int[]{0} : new int[0]; // identity
+            }
             for (int circCol = circRows; circCol < circCols; circCol++) { // 14; < 16
                 String firstRowHex = Generator.CIRCULANTS[circRow][circCol - Generator.IDENTITY_SIZE];
                 int[] firstRow = BitUtils.expandFromHexString(firstRowHex, 1, CIRCULANT_SIZE);
-                int startRow = circRow * CIRCULANT_SIZE;
-                int startColumn = circCol * CIRCULANT_SIZE;
-                circulantFactory.populate(matrix, startRow, startColumn, CIRCULANT_SIZE, firstRow);
+                firstRows[circRow][circCol] = LdpcCirculantMatrix.getSetBits(firstRow);
             }
         }
+        return new LdpcCirculantMatrix(CIRCULANT_SIZE, firstRows);
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.ldpc.encode;
+
+import farearth.landsat.ldpc.LdpcArrayChecks;
+import farearth.landsat.ldpc.LdpcCirculantMatrix;
+import farearth.landsat.ldpc.LdpcException;
+import farearth.landsat.ldpc.LdpcFrameSizes;
+import farearth.landsat.util.ThreadUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Encoder for a quasi-cyclic systematic generator matrix. The parity part of
+ * generator row s of a circulant is its first row rotated by s, i.e. the first
+ * row times x^s modulo x^size - 1, so the parity of a frame is accumulated by
+ * XORing a shifted copy of the first row into a double length accumulator for
+ * every set info bit and folding the upper half back at the end. The first
+ * rows are kept pre-shifted by 0 to 63 bits, which makes every info bit a few
+ * whole-word XORs.
+ *
+ * @author anton
+ */
+public class LdpcCirculantEncoder {
+
+    private final LdpcFrameSizes frameSizes;
+    private final int circulantSize;
+    private final int parityCirculants; // circulant columns after the identity part
+    private final int shiftedWords; // words of a first row shifted by up to 63 bits
+    private final int accumulatorWords;
+    private final long[][][] shiftedRows; // [circulant row * parityCirculants + parity circulant][bit shift] = first row, bit k at (k & 63) of word k / 64
+    // encoders are shared between threads, the accumulators are per thread
+    private final ThreadLocal<long[][]> accumulators;
+
+    public LdpcCirculantEncoder(LdpcGeneratorMatrix generatorMatrix, LdpcFrameSizes frameSizes) {
+        LdpcCirculantMatrix circulants = generatorMatrix.getCirculants()
+                .orElseThrow(() -> new IllegalArgumentException("The generator matrix is not made up of circulants"));
+        this.frameSizes = frameSizes;
+        this.circulantSize = circulants.getCirculantSize();
+        int infoCirculants = circulants.getCirculantRows();
+        this.parityCirculants = circulants.getCirculantColumns() - infoCirculants;
+        this.shiftedWords = (circulantSize + 2 * (Long.SIZE - 1)) / Long.SIZE;
+        this.accumulatorWords = (circulantSize - 1) / Long.SIZE + shiftedWords;
+        this.shiftedRows = new long[infoCirculants * parityCirculants][Long.SIZE][shiftedWords];
+        for (int r = 0; r < infoCirculants; r++) {
+            for (int p = 0; p < parityCirculants; p++) {
+                int[] setBits = circulants.getFirstRowSetBits(r, infoCirculants + p);
+                long[][] shifted = shiftedRows[r * parityCirculants + p];
+                for (int shift = 0; shift < Long.SIZE; shift++) {
+                    for (int bit : setBits) {
+                        int k = bit + shift;
+                        shifted[shift][k >>> 6] |= 1L << (k & 63);
+                    }
+                }
+            }
+        }
+        this.accumulators = ThreadLocal.withInitial(() -> new long[parityCirculants][accumulatorWords]);
+    }
+
+    public LdpcFrameSizes getFrameSizes() {
+        return frameSizes;
+    }
+
+    public byte[] encode(byte[] bytes) throws LdpcException {
+        LdpcArrayChecks.checkLength(bytes, frameSizes.getDecodedByteCount());
+        byte[] encoded = new byte[frameSizes.getEncodedByteCount()];
+        encode(bytes, 0, encoded, 0);
+        return encoded;
+    }
+
+    /**
+     * Encodes one frame without allocating.
+     *
+     * @param bytes
+     * @param offset start of the info bytes in bytes
+     * @param encoded
+     * @param encodedOffset start of the encoded frame in encoded
+     */
+    public void encode(byte[] bytes, int offset, byte[] encoded, int encodedOffset) {
+        int infoBytes = frameSizes.getDecodedByteCount();
+        int infoBits = frameSizes.getDecodedBitCount();
+        int virtualBitCount = frameSizes.getVirtualBitCount();
+        long[][] accumulator = accumulators.get();
+        for (long[] words : accumulator) {
+            Arrays.fill(words, 0);
+        }
+        for (int i = 0; i < infoBytes; i++) {
+            int value = bytes[offset + i] & 0xFF;
+            while (value != 0) {
+                int bit = i * 8 + 7 - Integer.numberOfTrailingZeros(value);
+                value &= value - 1;
+                if (bit >= infoBits) {
+                    break;
+                }
+                int row = bit + virtualBitCount;
+                int circulantRow = row / circulantSize;
+                int shift = row - circulantRow * circulantSize;
+                int word = shift >>> 6;
+                for (int p = 0; p < parityCirculants; p++) {
+                    long[] shifted = shiftedRows[circulantRow * parityCirculants + p][shift & 63];
+                    long[] words = accumulator[p];
+                    for (int w = 0; w < shiftedWords; w++) {
+                        words[word + w] ^= shifted[w];
+                    }
+                }
+            }
+        }
+        System.arraycopy(bytes, offset, encoded, encodedOffset, infoBytes);
+        Arrays.fill(encoded, encodedOffset + infoBytes, encodedOffset + frameSizes.getEncodedByteCount(), (byte) 0);
+        for (int p = 0; p < parityCirculants; p++) {
+            long[] words = accumulator[p];
+            int start = infoBits + p * circulantSize;
+            for (int k = 0; k < circulantSize; k++) {
+                int wrapped = k + circulantSize; // x^size is 1 again
+                long parity = (words[k >>> 6] >>> (k & 63)) ^ (words[wrapped >>> 6] >>> (wrapped & 63));
+                if ((parity & 1) != 0) {
+                    int bit = start + k;
+                    encoded[encodedOffset + (bit >>> 3)] |= 0x80 >>> (bit & 7);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes many frames, split into contiguous ranges over a pool of the
+     * given number of threads.
+     *
+     * @param frames info frames
+     * @param threads
+     * @return the encoded frames, in the same order
+     * @throws LdpcException
+     */
+    public byte[][] encode(byte[][] frames, int threads) throws LdpcException {
+        for (byte[] frame : frames) {
+            LdpcArrayChecks.checkLength(frame, frameSizes.getDecodedByteCount());
+        }
+        byte[][] encoded = new byte[frames.length][frameSizes.getEncodedByteCount()];
+        if (threads <= 1 || frames.length <= 1) {
+            for (int i = 0; i < frames.length; i++) {
+                encode(frames[i], 0, encoded[i], 0);
+            }
+            return encoded;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, ThreadUtils.createThreadFactory("ldpc-encoder-%d"));
+        try {
+            List<Callable<Void>> ranges = new ArrayList<>();
+            int rangeSize = (frames.length + threads - 1) / threads;
+            for (int start = 0; start < frames.length; start += rangeSize) {
+                int from = start;
+                int to = Math.min(frames.length, start + rangeSize);
+                ranges.add(() -> {
+                    for (int i = from; i < to; i++) {
+                        encode(frames[i], 0, encoded[i], 0);
+                    }
+                    return null;
+                });
+            }
+            ThreadUtils.forkAndWait(executor, ranges);
+        } finally {
+            executor.shutdown();
+        }
+        return encoded;
+    }
+}
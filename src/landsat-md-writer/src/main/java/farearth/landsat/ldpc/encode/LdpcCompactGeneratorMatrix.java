@@ -7,28 +7,32 @@ package farearth.landsat.ldpc.encode;
 import farearth.landsat.util.BitUtils;
 
 /**
+ * The parity columns of a systematic generator matrix, one bit per info bit.
+ * The identity columns are left out, the encoder copies the info bits.
  *
  * @author anton
  */
 public class LdpcCompactGeneratorMatrix {
 
-    private final byte[][] matrix; // [column][byte in column]
+    private final byte[][] matrix; // [parity column][byte in column]
 
     public LdpcCompactGeneratorMatrix(LdpcGeneratorMatrix genMatrix, int virtualBitCount) {
-        byte[][] rawMatrix = genMatrix.getRawMatrix();
-        int bytesPerColumn = (int) Math.ceil(genMatrix.getHeight() / 8.0);
-        matrix = new byte[genMatrix.getWidth()][bytesPerColumn];
-        for (int r = virtualBitCount; r < rawMatrix.length; r++) {
-            byte[] row = rawMatrix[r];
-            for (int c = 0; c < row.length; c++) {
-                byte bitValue = row[c];
-                if (bitValue != 0) {
-                    BitUtils.setBit(matrix[c], r - virtualBitCount);
+        int infoBits = genMatrix.getHeight();
+        int bytesPerColumn = (int) Math.ceil(infoBits / 8.0);
+        matrix = new byte[genMatrix.getWidth() - infoBits][bytesPerColumn];
+        for (int c = infoBits; c < genMatrix.getWidth(); c++) {
+            for (int r : genMatrix.getColumnRows(c)) {
+                if (r >= virtualBitCount) {
+                    BitUtils.setBit(matrix[c - infoBits], r - virtualBitCount);
                 }
             }
         }
     }
 
+    /**
+     * @return [parity column][byte in column], parity column 0 is the first
+     * column after the identity part
+     */
     public byte[][] getRawMatrix() {
         return matrix;
     }
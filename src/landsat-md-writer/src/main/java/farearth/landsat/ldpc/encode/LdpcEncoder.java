@@ -34,9 +34,19 @@ public abstract class LdpcEncoder<T extends LdpcGeneratorMatrix> {
     }
 
     public LdpcEncoder(T generatorMatrix, LdpcFrameSizes frameSizes) {
+        this(generatorMatrix, frameSizes, new LdpcCompactGeneratorMatrix(generatorMatrix, frameSizes.getVirtualBitCount()));
+    }
+
+    /**
+     * @param generatorMatrix
+     * @param frameSizes
+     * @param compactMatrix the generator matrix in compact form, may be shared
+     * between encoders
+     */
+    public LdpcEncoder(T generatorMatrix, LdpcFrameSizes frameSizes, LdpcCompactGeneratorMatrix compactMatrix) {
         this.generatorMatrix = generatorMatrix;
         this.frameSizes = frameSizes;
-        compactMatrix = new LdpcCompactGeneratorMatrix(generatorMatrix, frameSizes.getVirtualBitCount());
+        this.compactMatrix = compactMatrix;
     }
 
     public LdpcFrameSizes getFrameSizes() {
@@ -51,7 +61,7 @@ public abstract class LdpcEncoder<T extends LdpcGeneratorMatrix> {
         byte[] encoded = Arrays.copyOf(bytes, encodedByteCount);
         for (int i = infoBits; i < generatorMatrix.getWidth(); i++) {
             int value = 0;
-            byte[] columnBytes = rawMatrix[i];
+            byte[] columnBytes = rawMatrix[i - infoBits];
             for (int j = 0; j < bytes.length; j++) {
                 // Fast byte parity calculation
                 int v = bytes[j] & columnBytes[j];
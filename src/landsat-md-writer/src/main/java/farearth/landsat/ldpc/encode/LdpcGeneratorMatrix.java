@@ -4,6 +4,7 @@
  */
 package farearth.landsat.ldpc.encode;
 
+import farearth.landsat.ldpc.LdpcCirculantMatrix;
 import farearth.landsat.ldpc.LdpcMatrix;
 
 /**
@@ -16,6 +17,13 @@ public abstract class LdpcGeneratorMatrix extends LdpcMatrix {
         super(width, height);
     }
 
+    /**
+     * @param circulants all of the matrix, including the identity part
+     */
+    public LdpcGeneratorMatrix(LdpcCirculantMatrix circulants) {
+        super(circulants);
+    }
+
     protected abstract void populateCirculants(byte[][] matrix);
 
     @Override
@@ -78,6 +78,11 @@ public class QualityAwareFileHandler implements FileHandler {
         }
     }
 
+    @Override
+    public void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+        _goodCaduHandler.sequenceGap(apid, lastCount, nextCount);
+    }
+
     @Override
     public void close() throws IOException {
         if (_properties != null) {
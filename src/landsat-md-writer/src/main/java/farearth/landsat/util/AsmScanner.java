@@ -0,0 +1,64 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds 4-byte attached sync markers in big-endian buffers. Eight bytes are
+ * tested per step by reading a long and flagging every byte that equals the
+ * first ASM byte (the classic "has zero byte" trick on the XOR with that byte).
+ * Only flagged positions are compared against the full ASM.
+ *
+ * @author anton
+ */
+public class AsmScanner {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private AsmScanner() {
+    }
+
+    /**
+     * Returns the index of the first ASM that starts in [from, to) and lies
+     * completely before the limit of the buffer. The buffer position is not
+     * changed.
+     *
+     * @param buffer big-endian buffer
+     * @param asm
+     * @param from
+     * @param to
+     * @return the index or -1
+     */
+    public static int indexOf(ByteBuffer buffer, int asm, int from, int to) {
+        to = Math.min(to, buffer.limit() - 3);
+        long pattern = ONES * (asm >>> 24);
+        int index = from;
+        while (index < to && index + 8 <= buffer.limit()) {
+            long word = buffer.getLong(index) ^ pattern;
+            long flags = (word - ONES) & ~word & HIGHS;
+            while (flags != 0) {
+                int candidate = index + (Long.numberOfLeadingZeros(flags) >>> 3);
+                if (candidate >= to) {
+                    return -1;
+                }
+                if (buffer.getInt(candidate) == asm) {
+                    return candidate;
+                }
+                // flags can be false positives, but never miss a match
+                flags ^= Long.highestOneBit(flags);
+            }
+            index += 8;
+        }
+        for (; index < to; index++) {
+            if (buffer.getInt(index) == asm) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+}
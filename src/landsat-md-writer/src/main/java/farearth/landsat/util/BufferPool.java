@@ -0,0 +1,83 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe pool of equally sized buffers. Buffers are handed out with a
+ * single reference and return to the pool when their last reference is
+ * released. A buffer that is never released is simply garbage collected, but
+ * it stays counted as outstanding so that leaks are visible.
+ *
+ * @author Chris
+ */
+public class BufferPool {
+
+    private final int _bufferSize;
+    private final BlockingQueue<PooledBuffer> _free;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicInteger _outstanding = new AtomicInteger();
+
+    /**
+     * @param bufferSize size of every buffer in bytes
+     * @param maxPooled maximum number of free buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        _bufferSize = bufferSize;
+        _free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return a cleared buffer with a single reference
+     */
+    public PooledBuffer acquire() {
+        PooledBuffer buffer = _free.poll();
+        if (buffer == null) {
+            _misses.incrementAndGet();
+            buffer = new PooledBuffer(this, ByteBuffer.allocate(_bufferSize));
+        } else {
+            _hits.incrementAndGet();
+        }
+        buffer.reset();
+        _outstanding.incrementAndGet();
+        return buffer;
+    }
+
+    void recycle(PooledBuffer buffer) {
+        _outstanding.decrementAndGet();
+        _free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * @return number of buffers that have been acquired but not released
+     */
+    public int getOutstanding() {
+        return _outstanding.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, outstanding=%d", getHits(), getMisses(), getOutstanding());
+    }
+
+}
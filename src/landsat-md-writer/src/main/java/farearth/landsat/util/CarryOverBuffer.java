@@ -0,0 +1,105 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed capacity buffer for the bytes a frame synchronizer could not consume
+ * at the end of an input buffer. Only the first stitch size bytes of the next
+ * input are appended to the carried bytes, which is enough to complete any
+ * frame that started in the carried bytes, so the rest of the input can be
+ * processed in place.
+ * <p>
+ * Usage is to {@link #stitch(ByteBuffer)}, consume frames from the returned
+ * buffer until fewer than stitch size bytes remain, {@link #release(ByteBuffer)}
+ * and, if the carry is empty, process the input itself and {@link #keep(ByteBuffer)}
+ * whatever is left of it.
+ *
+ * @author anton
+ */
+public class CarryOverBuffer {
+
+    private final int _stitchSize;
+    private final ByteBuffer _buffer;
+    private int _inputStart;
+    private int _appended;
+
+    public CarryOverBuffer(int stitchSize) {
+        _stitchSize = stitchSize;
+        _buffer = ByteBuffer.allocate(2 * stitchSize);
+    }
+
+    public boolean isEmpty() {
+        return _buffer.position() == 0;
+    }
+
+    public int getStitchSize() {
+        return _stitchSize;
+    }
+
+    /**
+     * Appends the start of the input to the carried bytes without moving the
+     * input position.
+     *
+     * @param input
+     * @return the carried and appended bytes, ready to be read
+     */
+    public ByteBuffer stitch(ByteBuffer input) {
+        _inputStart = input.position();
+        _appended = Math.min(_stitchSize, input.remaining());
+        ByteBuffer head = input.duplicate();
+        head.limit(_inputStart + _appended);
+        _buffer.put(head);
+        _buffer.flip();
+        return _buffer;
+    }
+
+    /**
+     * Ends a stitch. If the unconsumed bytes of the stitched buffer all came
+     * from the input, the carry is cleared and the input is positioned at the
+     * first unconsumed byte. Otherwise the input was too short to complete a
+     * frame, it is fully consumed and the unconsumed bytes stay in the carry.
+     *
+     * @param input
+     */
+    public void release(ByteBuffer input) {
+        int carried = _buffer.limit() - _appended;
+        int consumed = _buffer.position();
+        if (consumed >= carried) {
+            input.position(_inputStart + consumed - carried);
+            _buffer.clear();
+        } else {
+            input.position(_inputStart + _appended);
+            _buffer.compact();
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of the input into the carry.
+     *
+     * @param input
+     */
+    public void keep(ByteBuffer input) {
+        if (_buffer.position() + input.remaining() > _stitchSize) {
+            throw new IllegalStateException(String.format("Cannot carry %d bytes, only %d allowed",
+                    _buffer.position() + input.remaining(), _stitchSize));
+        }
+        _buffer.put(input);
+    }
+
+    /**
+     * Empties the carry.
+     *
+     * @return the carried bytes, ready to be read
+     */
+    public ByteBuffer drain() {
+        ByteBuffer carried = _buffer.duplicate();
+        carried.flip();
+        _buffer.clear();
+        return carried;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted buffer that belongs to a {@link BufferPool}.
+ *
+ * @author Chris
+ */
+public class PooledBuffer {
+
+    private final BufferPool _pool;
+    private final ByteBuffer _buffer;
+    private final AtomicInteger _references = new AtomicInteger();
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        _pool = pool;
+        _buffer = buffer;
+    }
+
+    void reset() {
+        _buffer.clear();
+        _references.set(1);
+    }
+
+    public ByteBuffer getBuffer() {
+        return _buffer;
+    }
+
+    public void retain() {
+        if (_references.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Buffer has already been released");
+        }
+    }
+
+    public void release() {
+        int references = _references.decrementAndGet();
+        if (references == 0) {
+            _pool.recycle(this);
+        } else if (references < 0) {
+            throw new IllegalStateException("Buffer has been released too many times");
+        }
+    }
+
+}
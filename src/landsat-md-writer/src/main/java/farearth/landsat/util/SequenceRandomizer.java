@@ -56,6 +56,24 @@ public class SequenceRandomizer {
         encodeInplace(CCSDS_101_0_B_4_MASK, data, startIndex, length);
     }
 
+    /**
+     * The CCSDS sequence repeated over a whole frame and packed into big
+     * endian longs, so that a frame can be derandomized a word at a time
+     * while it is read, without wrapping at the 255 byte sequence length.
+     *
+     * @param length the frame length in bytes
+     * @return the sequence of the frame, the last word zero padded past the
+     * frame length
+     */
+    public static long[] createCcsdsMaskWords(int length) {
+        long[] words = new long[(length + Long.BYTES - 1) / Long.BYTES];
+        for (int i = 0; i < length; i++) {
+            long value = CCSDS_101_0_B_4_MASK[i % 255] & 0xFFL;
+            words[i / Long.BYTES] |= value << (56 - 8 * (i % Long.BYTES));
+        }
+        return words;
+    }
+
     public static ByteBuffer encode(byte[] mask, ByteBuffer buffer, int offset, int length) {
         byte[] data = new byte[length];
         buffer.get(data);
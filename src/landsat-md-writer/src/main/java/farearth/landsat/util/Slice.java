@@ -54,4 +54,39 @@ public interface Slice {
     public int remaining();
 
     public boolean hasRemaining();
+
+    /**
+     * Moves the position to just after the next occurrence of the 4-byte
+     * big-endian value, or to the limit if there is none.
+     *
+     * @param value e.g. an ASM
+     * @return true if the value was found
+     */
+    public default boolean scanTo(int value) {
+        int scanValue = 0;
+        int read = getUnsignedByte();
+        int count = 0;
+        while (read >= 0) {
+            scanValue = (scanValue << 8) | read;
+            if (++count >= 4 && scanValue == value) {
+                return true;
+            }
+            read = getUnsignedByte();
+        }
+        return false;
+    }
+
+    /**
+     * Keeps the memory behind the slice from being reused until
+     * {@link #release()} is called. Handlers that hold on to a slice after
+     * returning, e.g. queues, must retain it.
+     *
+     * @return this slice
+     */
+    public default Slice retain() {
+        return this;
+    }
+
+    public default void release() {
+    }
 }
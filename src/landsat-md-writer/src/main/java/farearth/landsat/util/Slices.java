@@ -26,6 +26,20 @@ public abstract class Slices {
         return new Wrapper(buffer);
     }
 
+    /**
+     * Creates a slice over the pooled buffer from position 0 to its limit.
+     * The slice and everything extracted from it share the reference to the
+     * buffer: the creator owns one reference and has to release it.
+     *
+     * @param buffer
+     * @return
+     */
+    public static Slice create(PooledBuffer buffer) {
+        Wrapper wrapper = new Wrapper(buffer.getBuffer());
+        wrapper._owner = buffer;
+        return wrapper;
+    }
+
     /**
      * This will duplicate the buffer so that the slice interactions will not
      * affect buffer. This should be slightly more performant than
@@ -109,6 +123,14 @@ public abstract class Slices {
             return _current.getUnsignedByte();
         }
 
+        @Override
+        public long getBytesAsLong(int count) throws IOException {
+            if (_current.remaining() >= count) {
+                return _current.getBytesAsLong(count);
+            }
+            return super.getBytesAsLong(count);
+        }
+
         @Override
         public int internalPosition() {
             if (_current == _a) {
@@ -184,6 +206,19 @@ public abstract class Slices {
             return read;
         }
 
+        @Override
+        public Slice retain() {
+            _a.retain();
+            _b.retain();
+            return this;
+        }
+
+        @Override
+        public void release() {
+            _a.release();
+            _b.release();
+        }
+
     }
 
     private static class Chain extends Abstract {
@@ -266,6 +301,17 @@ public abstract class Slices {
             return -1;
         }
 
+        @Override
+        public long getBytesAsLong(int count) throws IOException {
+            Slice current = _slices[_currentSlice];
+            if (current.remaining() >= count) {
+                long value = current.getBytesAsLong(count);
+                _position += count;
+                return value;
+            }
+            return super.getBytesAsLong(count);
+        }
+
         @Override
         public int read(ByteBuffer dst) {
             int startPosition = _position;
@@ -294,6 +340,21 @@ public abstract class Slices {
             return _position - startPosition;
         }
 
+        @Override
+        public Slice retain() {
+            for (Slice slice : _slices) {
+                slice.retain();
+            }
+            return this;
+        }
+
+        @Override
+        public void release() {
+            for (Slice slice : _slices) {
+                slice.release();
+            }
+        }
+
         private boolean checkSlice() {
             if (!_slices[_currentSlice].hasRemaining()) {
                 if (_currentSlice < _slices.length - 1) {
@@ -416,6 +477,7 @@ public abstract class Slices {
     private static class Wrapper extends Abstract {
 
         private ByteBuffer _buffer;
+        private PooledBuffer _owner;
 
         private Wrapper(ByteBuffer buffer, boolean resetPosition) {
             _buffer = buffer.duplicate();
@@ -445,7 +507,27 @@ public abstract class Slices {
 
         @Override
         public Slice duplicate() {
-            return new Wrapper(_buffer, false);
+            return owned(new Wrapper(_buffer, false));
+        }
+
+        private Wrapper owned(Wrapper wrapper) {
+            wrapper._owner = _owner;
+            return wrapper;
+        }
+
+        @Override
+        public Slice retain() {
+            if (_owner != null) {
+                _owner.retain();
+            }
+            return this;
+        }
+
+        @Override
+        public void release() {
+            if (_owner != null) {
+                _owner.release();
+            }
         }
 
         @Override
@@ -472,15 +554,37 @@ public abstract class Slices {
             }
         }
 
+        //Optimization, reads the bytes big-endian straight from the buffer
+        @Override
+        public long getBytesAsLong(int count) throws IOException {
+            if (count > 8 || _buffer.remaining() < count) {
+                return super.getBytesAsLong(count);
+            }
+            switch (count) {
+                case 8:
+                    return _buffer.getLong();
+                case 4:
+                    return _buffer.getInt() & 0xFFFFFFFFL;
+                case 2:
+                    return _buffer.getShort() & 0xFFFF;
+                default:
+                    long value = 0;
+                    for (int i = 0; i < count; i++) {
+                        value = value << 8 | (_buffer.get() & 0xFF);
+                    }
+                    return value;
+            }
+        }
+
         @Override
         protected Slice internalExtract(int start, int length) {
-            return new Wrapper(_buffer, start, start + length);
+            return owned(new Wrapper(_buffer, start, start + length));
         }
 
         //Optimization
         @Override
         public Slice extract(int length) {
-            return new Wrapper(_buffer, length);
+            return owned(new Wrapper(_buffer, length));
         }
 
 //        @Override
@@ -501,9 +605,10 @@ public abstract class Slices {
         public int read(ByteBuffer dst) {
             int srcSize = _buffer.remaining();
             int read = Math.min(dst.remaining(), srcSize);
-            byte[] b = new byte[read];
-            _buffer.get(b);
-            dst.put(b);
+            int limit = _buffer.limit();
+            _buffer.limit(_buffer.position() + read);
+            dst.put(_buffer);
+            _buffer.limit(limit);
             if (read == 0 && srcSize == 0) {
                 read = -1;
             }
@@ -514,6 +619,17 @@ public abstract class Slices {
         public int read(WritableByteChannel dst) throws IOException {
             return dst.write(_buffer);
         }
+
+        @Override
+        public boolean scanTo(int value) {
+            int index = AsmScanner.indexOf(_buffer, value, _buffer.position(), _buffer.limit());
+            if (index < 0) {
+                _buffer.position(_buffer.limit());
+                return false;
+            }
+            _buffer.position(index + 4);
+            return true;
+        }
     }
 
     private static abstract class Abstract implements Slice {
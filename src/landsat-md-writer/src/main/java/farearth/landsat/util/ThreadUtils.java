@@ -52,12 +52,24 @@ public class ThreadUtils {
      * @return
      */
     public static ThreadFactory createThreadFactory(String namePattern) {
+        return createThreadFactory(namePattern, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Create a thread factory for named daemon threads of the given priority.
+     *
+     * @param namePattern e.g. "epic-thread-%d"
+     * @param priority e.g. Thread.MIN_PRIORITY for background work
+     * @return
+     */
+    public static ThreadFactory createThreadFactory(String namePattern, int priority) {
         AtomicLong threadCount = new AtomicLong(0);
         ThreadFactory defaultThreadFactory = Executors.defaultThreadFactory();
         return (Runnable r) -> {
             Thread newThread = defaultThreadFactory.newThread(r);
             newThread.setName(String.format(namePattern, threadCount.incrementAndGet()));
             newThread.setDaemon(true);
+            newThread.setPriority(priority);
             return newThread;
         };
     }
@@ -0,0 +1,93 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock free ring for exactly one producer thread and one consumer
+ * thread. Each side caches the other side's counter and only reads the shared
+ * one when the ring looks full or empty.
+ *
+ * @author Chris
+ * @param <T>
+ */
+public class SpscRing<T> {
+
+    private final Object[] _items;
+    private final int _mask;
+    private final AtomicLong _head = new AtomicLong(); // next slot to read
+    private final AtomicLong _tail = new AtomicLong(); // next slot to write
+    private long _cachedHead; // producer only
+    private long _cachedTail; // consumer only
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpscRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        _items = new Object[size];
+        _mask = size - 1;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @param item not null
+     * @return false if the ring is full
+     */
+    public boolean offer(T item) {
+        long tail = _tail.get();
+        if (tail - _cachedHead >= _items.length) {
+            _cachedHead = _head.get();
+            if (tail - _cachedHead >= _items.length) {
+                return false;
+            }
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return the oldest item or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long head = _head.get();
+        if (head >= _cachedTail) {
+            _cachedTail = _tail.get();
+            if (head >= _cachedTail) {
+                return null;
+            }
+        }
+        int index = (int) head & _mask;
+        T item = (T) _items[index];
+        _items[index] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    public int size() {
+        return (int) (_tail.get() - _head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return _items.length;
+    }
+
+}
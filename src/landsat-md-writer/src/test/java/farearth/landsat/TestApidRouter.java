@@ -0,0 +1,64 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.Slices;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Chris
+ */
+public class TestApidRouter {
+
+    @Test
+    public void testApidRouter() throws IOException {
+        ApidFilter red = new ApidFilter.Bands("red", false);
+        ApidFilter thermal = new ApidFilter.Bands("thermal1,thermal2");
+        ApidFilter.Mask mask = new ApidFilter.Mask(red);
+        for (APID apid : APID.values()) {
+            Assert.assertEquals(red.pass(apid), mask.pass(apid));
+        }
+        List<String> received = new ArrayList<>();
+        ApidRouter router = new ApidRouter()
+                .add(new ListingFileHandler("red", received), red)
+                .add(new ListingFileHandler("thermal", received), thermal)
+                .add(new ListingFileHandler("all", received), new ApidFilter.All());
+        byte[] data = new byte[10];
+        for (APID apid : new APID[]{APID.OliPxRed, APID.TirsPx10, APID.AncillaryData, APID.OliPxRed}) {
+            router.fileData(Slices.create(ByteBuffer.wrap(data)), apid, data.length, 0);
+        }
+        Assert.assertEquals(Arrays.asList("red:OliPxRed", "all:OliPxRed", "thermal:TirsPx10", "all:TirsPx10",
+                "thermal:AncillaryData", "all:AncillaryData", "red:OliPxRed", "all:OliPxRed"), received);
+        Assert.assertEquals(2, router.getPacketCount(APID.OliPxRed));
+        Assert.assertEquals(20, router.getByteCount(APID.OliPxRed));
+        Assert.assertEquals(0, router.getPacketCount(APID.OliPxBlue));
+    }
+
+    private static class ListingFileHandler extends FileHandler.Null {
+
+        private final String _name;
+        private final List<String> _received;
+
+        public ListingFileHandler(String name, List<String> received) {
+            _name = name;
+            _received = received;
+        }
+
+        @Override
+        public void fileData(Slice data, APID apid, int length, long offset) {
+            Assert.assertEquals(length, data.remaining());
+            _received.add(_name + ":" + apid);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.Slices;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class TestCfdpChecksum {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCfdpChecksum() throws IOException {
+        File output = folder.newFolder();
+        MissionDataWriter writer = new MissionDataWriter(output, "VC00", new Properties());
+        byte[] file = new byte[1001];
+        new Random(3).nextBytes(file);
+        int checksum = 0;
+        for (int i = 0; i < file.length; i++) {
+            checksum += (file[i] & 0xFF) << (24 - 8 * (i % 4));
+        }
+        for (String name : new String[]{"complete", "missing"}) {
+            writer.startFile(name);
+            // packets of odd lengths, the even ones split over two slices
+            for (int offset = 0, packet = 0; offset < file.length; offset += 93, packet++) {
+                int length = Math.min(93, file.length - offset);
+                Slice data = packet % 2 == 0
+                        ? Slices.chain(Slices.create(ByteBuffer.wrap(file), offset, offset + 5),
+                                Slices.create(ByteBuffer.wrap(file), offset + 5, offset + length))
+                        : Slices.create(ByteBuffer.wrap(file), offset, offset + length);
+                if (!name.equals("missing") || packet != 4) {
+                    writer.fileData(data, APID.forValue(2), length, offset);
+                }
+            }
+            writer.endFile(file.length, checksum);
+        }
+        writer.close();
+        Properties complete = readProperties(output, "complete");
+        Assert.assertEquals(String.valueOf(checksum), complete.getProperty("cfdp-checksum-computed"));
+        Assert.assertEquals("true", complete.getProperty("cfdp-checksum-valid"));
+        Assert.assertEquals("false", readProperties(output, "missing").getProperty("cfdp-checksum-valid"));
+    }
+
+    private static Properties readProperties(File folder, String name) throws IOException {
+        File[] files = folder.listFiles((dir, file) -> file.startsWith(name + ".") && file.endsWith(".properties"));
+        Assert.assertEquals(1, files.length);
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(files[0])) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.Slices;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Chris
+ */
+public class TestCfdpHeader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestCfdpHeader.class);
+
+    @Test
+    public void testParse() throws IOException {
+        CfdpHeader header = new CfdpHeader();
+        Assert.assertTrue(header.parse(Slices.create(metadata(1, "LO80001"))));
+        Assert.assertEquals(CfdpHeader.PacketType.Metadata, header.getType());
+        Assert.assertEquals(CfdpHeader.SourceID.TIRS, header.getSourceID());
+        Assert.assertEquals("LO80001", header.getDestinationFilename());
+
+        Slice data = Slices.create(data(0, 0xF0000000L, 100));
+        Assert.assertTrue(header.parse(data));
+        Assert.assertEquals(CfdpHeader.PacketType.Data, header.getType());
+        Assert.assertEquals(CfdpHeader.SourceID.OLI, header.getSourceID());
+        Assert.assertEquals(0xF0000000L, header.getOffset());
+        Assert.assertEquals(100, header.getPayloadLength());
+        Assert.assertEquals(100, data.remaining());
+
+        Assert.assertTrue(header.parse(Slices.create(eof(3, 0x89ABCDEF, 0xFFFFFFFFL))));
+        Assert.assertEquals(CfdpHeader.PacketType.EOF, header.getType());
+        Assert.assertEquals(CfdpHeader.SourceID.Ancillary, header.getSourceID());
+        Assert.assertEquals(0x89ABCDEF, header.getChecksum());
+        Assert.assertEquals(0xFFFFFFFFL, header.getFilesize());
+
+        ByteBuffer invalid = data(2, 0, 10);
+        Assert.assertFalse(header.parse(Slices.create(invalid)));
+        invalid.put(4, (byte) 0).put(0, (byte) 0x15);
+        Assert.assertFalse(header.parse(Slices.create(invalid)));
+        Assert.assertFalse(header.parse(Slices.create(ByteBuffer.allocate(7))));
+    }
+
+    @Test
+    public void testParseAcrossSlices() throws IOException {
+        CfdpHeader header = new CfdpHeader();
+        ByteBuffer[] pdus = {metadata(0, "LO80002"), data(0, 0x12345678L, 40), eof(0, 42, 0x12345678L + 40)};
+        for (ByteBuffer pdu : pdus) {
+            // every split of the PDU over two and three slices reads the same fields
+            for (int split = 1; split < pdu.limit() - 1; split++) {
+                Pdu expected = Pdu.parse(Slices.create(pdu));
+                assertEquals(expected, header, Slices.chain(
+                        Slices.create(pdu, 0, split), Slices.create(pdu, split, pdu.limit())));
+                assertEquals(expected, header, Slices.chain(
+                        Slices.create(pdu, 0, split), Slices.create(pdu, split, split + 1), Slices.create(pdu, split + 1, pdu.limit())));
+            }
+        }
+    }
+
+    @Test
+    public void testParseRate() throws IOException {
+        int count = 1 << 12;
+        Slice[] pdus = new Slice[count];
+        for (int i = 0; i < count; i++) {
+            ByteBuffer pdu = data(0, i * 1000L, 1000);
+            // reassembled packets usually span two CADUs
+            pdus[i] = i % 2 == 0 ? Slices.create(pdu)
+                    : Slices.chain(Slices.create(pdu, 0, 6), Slices.create(pdu, 6, pdu.limit()));
+        }
+        CfdpHeader header = new CfdpHeader();
+        int iterations = 400;
+        long referenceTime = 0;
+        long viewTime = 0;
+        long check = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            for (Slice pdu : pdus) {
+                pdu.position(0);
+                check += Pdu.parse(pdu).offset;
+            }
+            referenceTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Slice pdu : pdus) {
+                pdu.position(0);
+                header.parse(pdu);
+                check -= header.getOffset();
+            }
+            viewTime += System.nanoTime() - start;
+        }
+        Assert.assertEquals(0, check);
+        double millions = iterations * (double) count / 1e6;
+        LOG.info(String.format("CFDP parse: allocating byte at a time %.1f M PDU/s, reusable view %.1f M PDU/s",
+                millions / (referenceTime / 1e9), millions / (viewTime / 1e9)));
+    }
+
+    private static void assertEquals(Pdu expected, CfdpHeader header, Slice slice) throws IOException {
+        Assert.assertTrue(header.parse(slice));
+        Assert.assertEquals(expected.type, header.getType());
+        Assert.assertEquals(expected.sourceID, header.getSourceID());
+        switch (expected.type) {
+            case Metadata:
+                Assert.assertEquals(expected.filename, header.getDestinationFilename());
+                break;
+            case Data:
+                Assert.assertEquals(expected.offset, header.getOffset());
+                Assert.assertEquals(expected.payloadLength, header.getPayloadLength());
+                Assert.assertEquals(expected.payloadLength, slice.remaining());
+                break;
+            default:
+                Assert.assertEquals(expected.checksum, header.getChecksum());
+                Assert.assertEquals(expected.fileSize, header.getFilesize());
+        }
+    }
+
+    private static ByteBuffer pdu(int type, int sourceID, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.put((byte) type).putShort((short) length).put((byte) 1).put((byte) sourceID).put(new byte[3]);
+        return buffer;
+    }
+
+    private static ByteBuffer metadata(int sourceID, String filename) {
+        ByteBuffer buffer = pdu(0x04, sourceID, 0x16);
+        buffer.put((byte) 0x07).put(new byte[14]).put(filename.getBytes(StandardCharsets.US_ASCII));
+        buffer.clear();
+        return buffer;
+    }
+
+    private static ByteBuffer data(int sourceID, long offset, int payloadLength) {
+        ByteBuffer buffer = pdu(0x14, sourceID, payloadLength + 4);
+        buffer.putInt((int) offset);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static ByteBuffer eof(int sourceID, int checksum, long fileSize) {
+        ByteBuffer buffer = pdu(0x04, sourceID, 10);
+        buffer.put((byte) 0x04).put((byte) 0).putInt(checksum).putInt((int) fileSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Reference parser that reads a byte at a time into a new object per PDU.
+     */
+    private static class Pdu {
+
+        private CfdpHeader.PacketType type;
+        private CfdpHeader.SourceID sourceID;
+        private String filename;
+        private long offset;
+        private int payloadLength;
+        private int checksum;
+        private long fileSize;
+
+        private static Pdu parse(Slice slice) throws IOException {
+            Pdu pdu = new Pdu();
+            int typeByte = slice.getUnsignedByte();
+            int length = slice.getUnsignedByte() << 8 | slice.getUnsignedByte();
+            slice.skip(1);
+            pdu.sourceID = CfdpHeader.SourceID.values()[Math.min(slice.getUnsignedByte(), 2)];
+            slice.skip(3);
+            if (typeByte == 0x14) {
+                pdu.type = CfdpHeader.PacketType.Data;
+                pdu.offset = readUnsigned(slice, 4);
+                pdu.payloadLength = length - 4;
+            } else if (slice.getUnsignedByte() == 0x07) {
+                pdu.type = CfdpHeader.PacketType.Metadata;
+                slice.skip(14);
+                pdu.filename = new String(slice.getBytes(7), StandardCharsets.US_ASCII);
+            } else {
+                pdu.type = CfdpHeader.PacketType.EOF;
+                slice.skip(1);
+                pdu.checksum = (int) readUnsigned(slice, 4);
+                pdu.fileSize = readUnsigned(slice, 4);
+            }
+            return pdu;
+        }
+
+        private static long readUnsigned(Slice slice, int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                value = value << 8 | slice.getUnsignedByte();
+            }
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.ldpc.Landsat8LdpcConstants;
+import farearth.landsat.ldpc.LdpcException;
+import farearth.landsat.ldpc.LdpcTestUtils;
+import farearth.landsat.ldpc.encode.Landsat8LdpcCirculantEncoder;
+import farearth.landsat.util.SequenceRandomizer;
+import farearth.landsat.util.Slice;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author anton
+ */
+public class TestFrameSync {
+
+    private static final String CADU_STREAM = "/farearth/landsat8/cadu/UnitTest_CADUstream1.rec";
+    private static final String[] OLI_BANDS = {"pan", "coastal", "red", "green", "blue", "nir", "swir1", "swir2", "cirrus"};
+    private static final String[] TIRS_BANDS = {"thermal1", "thermal2"};
+    private static final byte[] LDPC_ASM = ByteBuffer.allocate(Integer.BYTES).putInt(Landsat8LdpcConstants.ASM).array();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMappedInput() throws IOException {
+        File input = createRecording(8);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, process(input, (builder, file) -> {
+            ChannelProcessor processor = new ChannelProcessor(builder.build());
+            processor.setWindowSize(1024 * 1024);
+            processor.readMapped(file);
+        }));
+    }
+
+    @Test
+    public void testSplitInput() throws IOException {
+        File input = createRecording(8);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, process(input, (builder, file) -> {
+            SplitFileProcessor processor = builder.buildSplit(3);
+            processor.setRangeSize(1024 * 1024);
+            processor.readAll(file);
+        }));
+    }
+
+    @Test
+    public void testSplitInputSequenceGap() throws IOException {
+        byte[] bytes = Files.readAllBytes(createRecording(4).toPath());
+        // drop the first OLI CADU of the second range, the packets it carries straddle the boundary
+        int cadu = (1024 * 1024 + CaduHeader.CADU_SIZE - 1) / CaduHeader.CADU_SIZE;
+        while (Landsat8FrameSynchronizer.getVc(ByteBuffer.wrap(bytes), cadu * CaduHeader.CADU_SIZE) != VCID.REALTIME_OLI) {
+            cadu++;
+        }
+        File input = folder.newFile();
+        try (OutputStream os = new FileOutputStream(input)) {
+            os.write(bytes, 0, cadu * CaduHeader.CADU_SIZE);
+            os.write(bytes, (cadu + 1) * CaduHeader.CADU_SIZE, bytes.length - (cadu + 1) * CaduHeader.CADU_SIZE);
+        }
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertTrue(expected.stream().anyMatch(file -> file.contains(":gap:")));
+        Assert.assertEquals(expected, process(input, (builder, file) -> {
+            SplitFileProcessor processor = builder.buildSplit(2);
+            processor.setRangeSize(1024 * 1024);
+            processor.readAll(file);
+        }));
+    }
+
+    @Test
+    public void testSplitInputPassProperties() throws IOException {
+        File input = createRecording(4);
+        Properties expected = processToFolder(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertEquals("1", expected.getProperty("sync-lock-transitions"));
+        Properties split = processToFolder(input, (builder, file) -> {
+            SplitFileProcessor processor = builder.buildSplit(2);
+            processor.setRangeSize(1024 * 1024);
+            processor.readAll(file);
+        });
+        // every range locks on its own
+        Assert.assertEquals("2", split.getProperty("sync-lock-transitions"));
+        Assert.assertEquals(expected.getProperty("sync-dropped-frames"), split.getProperty("sync-dropped-frames"));
+        try {
+            new FrameSyncBuilder().parallelVirtualChannels(true).buildSplit(2);
+            Assert.fail("parallel virtual channels are ignored by split processing");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    private Properties processToFolder(File input, Runner runner) throws IOException {
+        File output = folder.newFolder();
+        FrameSyncBuilder builder = new FrameSyncBuilder();
+        builder.writeRealtimeData(output, false);
+        runner.run(builder, input);
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(new File(output, "pass.properties"))) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    @Test
+    public void testParallelVirtualChannels() throws IOException {
+        File input = createRecording(4);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, process(input, (builder, file) -> {
+            // a small ring makes the synchronizer stall on the workers
+            builder.parallelVirtualChannels(true, 16);
+            new ChannelProcessor(builder.build()).readAll(file);
+        }));
+    }
+
+    @Test
+    public void testSmallReads() throws IOException {
+        File input = createRecording(2);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, process(input, (builder, file) -> {
+            // reads that are smaller than a CADU and never line up with one
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            ByteBuffer buffer = ByteBuffer.allocate(777);
+            try (FrameSynchronizer sync = builder.build()) {
+                for (int offset = 0; offset < bytes.length; offset += buffer.capacity()) {
+                    buffer.clear();
+                    buffer.put(bytes, offset, Math.min(buffer.capacity(), bytes.length - offset));
+                    buffer.flip();
+                    sync.process(buffer);
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void testFlywheel() throws IOException {
+        File input = createRecording(2);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        // wipe the ASM of every 37th CADU, a locked stream should not lose them
+        File corrupted = folder.newFile();
+        byte[] bytes = Files.readAllBytes(input.toPath());
+        for (int offset = 10 * CaduHeader.CADU_SIZE; offset < bytes.length; offset += 37 * CaduHeader.CADU_SIZE) {
+            for (int i = 0; i < CaduHeader.ASM_SIZE; i++) {
+                bytes[offset + i] ^= 0xFF;
+            }
+        }
+        Files.write(corrupted.toPath(), bytes);
+        Assert.assertEquals(expected, process(corrupted, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file)));
+        Assert.assertNotEquals(expected, process(corrupted, (builder, file) -> {
+            builder.syncSettings(new SyncSettings(1, 0, 0));
+            new ChannelProcessor(builder.build()).readAll(file);
+        }));
+    }
+
+    @Test
+    public void testFlywheelAfterRelock() throws IOException {
+        byte[] bytes = Files.readAllBytes(createRecording(1).toPath());
+        // more misses than the flywheel allows lose the lock at CADU 52
+        for (int cadu : new int[]{50, 51, 52}) {
+            for (int i = 0; i < CaduHeader.ASM_SIZE; i++) {
+                bytes[cadu * CaduHeader.CADU_SIZE + i] ^= 0xFF;
+            }
+        }
+        // CADUs 53 and 54 are checked, the bad header of the first locked CADU must be a single miss
+        bytes[55 * CaduHeader.CADU_SIZE + CaduHeader.ASM_SIZE] ^= 0xFF;
+        Map<Integer, PayloadHandler> handlers = new HashMap<>();
+        for (int vc = 0; vc < 64; vc++) {
+            handlers.put(vc, new PayloadHandler() {
+                @Override
+                public void payload(Slice slice) {
+                }
+
+                @Override
+                public void dataLost() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+        Landsat8FrameSynchronizer sync = new Landsat8FrameSynchronizer(handlers, SyncSettings.DEFAULT);
+        sync.process(ByteBuffer.wrap(bytes));
+        sync.close();
+        Assert.assertEquals(1, sync.getStatistics().getTransitions(SyncState.Search));
+        Assert.assertEquals(2, sync.getStatistics().getFlywheelFrames());
+        Assert.assertEquals(1, sync.getStatistics().getDroppedFrames());
+    }
+
+    @Test
+    public void testSoftLdpc() throws IOException, LdpcException {
+        File input = createRecording(1);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertFalse(expected.isEmpty());
+        // turn the LDPC frames into noisy soft symbols
+        byte[][] encoded = encodeLdpcFrames(input);
+        Random random = new Random(42);
+        File soft = folder.newFile();
+        try (OutputStream os = new FileOutputStream(soft)) {
+            byte[] junk = new byte[1000];
+            random.nextBytes(junk);
+            os.write(junk);
+            for (byte[] frame : encoded) {
+                // 4 bit symbols, noisy enough for about one wrong hard decision in a hundred
+                os.write(LdpcTestUtils.toSoftSymbols(LDPC_ASM, random, 4, 0.45));
+                os.write(LdpcTestUtils.toSoftSymbols(frame, random, 4, 0.45));
+            }
+        }
+        Assert.assertEquals(expected, process(soft, (builder, file) -> {
+            builder.processSoftLdpc(true);
+            new ChannelProcessor(builder.build()).readAll(file);
+        }));
+    }
+
+    @Test
+    public void testLdpcCaduAssembly() throws IOException, LdpcException {
+        File input = createRecording(1);
+        List<String> expected = process(input, (builder, file) -> new ChannelProcessor(builder.build()).readAll(file));
+        Assert.assertFalse(expected.isEmpty());
+        File ldpc = folder.newFile();
+        try (OutputStream os = new FileOutputStream(ldpc)) {
+            for (byte[] frame : encodeLdpcFrames(input)) {
+                os.write(LDPC_ASM);
+                os.write(frame);
+            }
+            os.write(LDPC_ASM);
+        }
+        Assert.assertEquals(expected, process(ldpc, (builder, file) -> {
+            builder.processLdpc(true, true, 60);
+            new ChannelProcessor(builder.build()).readAll(file);
+        }));
+        Assert.assertEquals(expected, process(ldpc, (builder, file) -> {
+            builder.processLdpc(true, true, 60).ldpcCaduResync(true);
+            new ChannelProcessor(builder.build()).readAll(file);
+        }));
+    }
+
+    @Test
+    public void testCaduAssemblyKeepsPhaseOverLostData() throws IOException {
+        byte[] bytes = Files.readAllBytes(createRecording(2).toPath());
+        int frameSize = 892;
+        int lostFrame = 100; // reported as lost, the phase is kept
+        int gapStart = 300; // lost without saying how much, the phase is searched again
+        int gapEnd = 302;
+        List<byte[]> expected = new ArrayList<>();
+        for (int start = 0; start + CaduHeader.CADU_SIZE <= bytes.length; start += CaduHeader.CADU_SIZE) {
+            int end = start + CaduHeader.CADU_SIZE;
+            boolean lost = (start < (lostFrame + 1) * frameSize && end > lostFrame * frameSize)
+                    || (start < gapEnd * frameSize && end > gapStart * frameSize);
+            if (!lost && Landsat8FrameSynchronizer.getVc(ByteBuffer.wrap(bytes), start) >= 0) {
+                expected.add(Arrays.copyOfRange(bytes, start, end));
+            }
+        }
+        for (boolean checkAsm : new boolean[]{true, false}) {
+            List<byte[]> cadus = new ArrayList<>();
+            PayloadHandler collector = new PayloadHandler() {
+                @Override
+                public void payload(Slice e) throws IOException {
+                    cadus.add(e.getBytes(e.remaining()));
+                }
+
+                @Override
+                public void dataLost() {
+                }
+
+                @Override
+                public void close() throws IOException {
+                }
+            };
+            Map<Integer, PayloadHandler> handlers = new HashMap<>();
+            for (int vc = 0; vc < 64; vc++) {
+                handlers.put(vc, collector);
+            }
+            Landsat8CaduAssembler assembler = new Landsat8CaduAssembler(handlers, SyncSettings.DEFAULT, checkAsm);
+            try (FrameSynchronizer sync = assembler) {
+                for (int frame = 0; frame * frameSize < bytes.length; frame++) {
+                    if (frame == lostFrame) {
+                        sync.dataLost(frameSize);
+                    } else if (frame == gapStart) {
+                        sync.dataLost(-1);
+                    } else if (frame < gapStart || frame >= gapEnd) {
+                        int offset = frame * frameSize;
+                        sync.process(ByteBuffer.wrap(bytes, offset, Math.min(frameSize, bytes.length - offset)));
+                    }
+                }
+            }
+            Assert.assertEquals(expected.size(), cadus.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertArrayEquals(expected.get(i), cadus.get(i));
+            }
+            Assert.assertEquals(0, assembler.getStatistics().getTransitions(SyncState.Flywheel));
+        }
+    }
+
+    @Test
+    public void testChainedPacketAssembly() throws IOException {
+        byte[] bytes = Files.readAllBytes(createRecording(2).toPath());
+        List<String> expected = assemblePackets(bytes, false);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, assemblePackets(bytes, true));
+    }
+
+    private static List<String> assemblePackets(byte[] bytes, boolean chained) throws IOException {
+        List<String> packets = new ArrayList<>();
+        Map<Integer, PayloadHandler> handlers = new HashMap<>();
+        for (int vcID : new int[]{VCID.REALTIME_OLI, VCID.REALTIME_TIRS, VCID.PLAYBACK_TIRS, VCID.PLAYBACK_OLI}) {
+            PayloadHandler collector = new PayloadHandler() {
+                @Override
+                public void payload(Slice e) throws IOException {
+                    packets.add(vcID + ":" + Arrays.toString(e.getBytes(e.remaining())));
+                }
+
+                @Override
+                public void dataLost() {
+                }
+
+                @Override
+                public void close() throws IOException {
+                }
+            };
+            handlers.put(vcID, new CaduHandler(new MpduHandler(new MpduPayloadAssembler(collector, chained))));
+        }
+        try (FrameSynchronizer sync = new Landsat8FrameSynchronizer(handlers)) {
+            sync.process(ByteBuffer.wrap(bytes));
+        }
+        return packets;
+    }
+
+    private List<String> process(File input, Runner runner) throws IOException {
+        DigestFileHandler oli = new DigestFileHandler("OLI");
+        DigestFileHandler tirs = new DigestFileHandler("TIRS");
+        FrameSyncBuilder builder = new FrameSyncBuilder();
+        builder.processRealtimeOli(oli, false, OLI_BANDS);
+        builder.processRealtimeTirs(tirs, false, TIRS_BANDS);
+        runner.run(builder, input);
+        List<String> summary = new ArrayList<>(oli.getFiles());
+        summary.addAll(tirs.getFiles());
+        return summary;
+    }
+
+    /**
+     * Encodes and randomizes a CADU stream into LDPC frames, the last one zero
+     * padded.
+     */
+    private static byte[][] encodeLdpcFrames(File input) throws IOException, LdpcException {
+        Landsat8LdpcCirculantEncoder encoder = new Landsat8LdpcCirculantEncoder();
+        int infoSize = encoder.getFrameSizes().getDecodedByteCount();
+        byte[] bytes = Files.readAllBytes(input.toPath());
+        byte[][] frames = new byte[(bytes.length + infoSize - 1) / infoSize][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = Arrays.copyOfRange(bytes, i * infoSize, (i + 1) * infoSize);
+        }
+        byte[][] encoded = encoder.encode(frames, 2);
+        for (byte[] frame : encoded) {
+            SequenceRandomizer.encodeCcsdsInplace(frame, 0, frame.length);
+        }
+        return encoded;
+    }
+
+    private File createRecording(int repeats) throws IOException {
+        File file = folder.newFile();
+        byte[] buffer = new byte[4096];
+        try (OutputStream os = new FileOutputStream(file)) {
+            for (int i = 0; i < repeats; i++) {
+                try (InputStream is = TestFrameSync.class.getResourceAsStream(CADU_STREAM)) {
+                    int read;
+                    while ((read = is.read(buffer)) > 0) {
+                        os.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+        return file;
+    }
+
+    private static interface Runner {
+
+        void run(FrameSyncBuilder builder, File input) throws IOException;
+    }
+
+    /**
+     * Summarizes every file as its name, size and content digest.
+     */
+    private static class DigestFileHandler extends FileHandler.Abstract {
+
+        private final String _prefix;
+        private final List<String> _files = new ArrayList<>();
+        private MessageDigest _digest;
+        private String _name;
+        private long _size;
+        private int _dataLost;
+
+        public DigestFileHandler(String prefix) {
+            _prefix = prefix;
+        }
+
+        public List<String> getFiles() {
+            return _files;
+        }
+
+        @Override
+        protected void startFile(String name, Date fileStart, Date dataStart, boolean isLeadingPartial) throws IOException {
+            try {
+                _digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IOException(ex);
+            }
+            _name = isLeadingPartial ? _prefix : name;
+            _size = 0;
+        }
+
+        @Override
+        protected void endFile(long filesize, int checksum, long lostBytes, boolean isTrailingPartial) throws IOException {
+            StringBuilder sb = new StringBuilder(_name).append(':').append(_size).append(':')
+                    .append(lostBytes).append(':').append(_dataLost).append(':');
+            for (byte b : _digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            _files.add(sb.toString());
+        }
+
+        @Override
+        protected void writeData(Slice data, long offset) throws IOException {
+            byte[] bytes = data.getBytes(data.remaining());
+            _digest.update(bytes);
+            _size += bytes.length;
+        }
+
+        @Override
+        protected void writeSequenceGap(APID apid, int lastCount, int nextCount, long offset) {
+            _files.add(_name + ":gap:" + apid + ":" + lastCount + ":" + nextCount + ":" + offset);
+        }
+
+        @Override
+        protected void onClose() {
+        }
+
+        @Override
+        public void dataLost() {
+            _dataLost++;
+        }
+    }
+}
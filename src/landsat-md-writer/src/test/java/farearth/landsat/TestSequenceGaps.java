@@ -0,0 +1,86 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat;
+
+import farearth.landsat.util.Slice;
+import farearth.landsat.util.Slices;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class TestSequenceGaps {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSequenceGaps() throws IOException {
+        List<String> gaps = new ArrayList<>();
+        SpacePacketHandler handler = new SpacePacketHandler(new ApidPayloadHandler() {
+            @Override
+            public void payload(APID apid, Slice e) throws IOException {
+            }
+
+            @Override
+            public void sequenceGap(APID apid, int lastCount, int nextCount) throws IOException {
+                gaps.add(apid.getValue() + ":" + lastCount + ":" + nextCount);
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+
+            @Override
+            public void dataLost() {
+            }
+        });
+        // the counts of an APID wrap at 14 bits and are independent of the other APIDs
+        int[][] packets = {{2, 16382}, {3, 7}, {2, 16383}, {2, 0}, {3, 9}, {2, 2}, {3, 10}};
+        for (int[] packet : packets) {
+            ByteBuffer buffer = ByteBuffer.allocate(SpacePacketHeader.SIZE + 4);
+            buffer.putShort((short) (0x0800 | packet[0]));
+            buffer.putShort((short) (0xC000 | packet[1]));
+            buffer.putShort((short) 3);
+            handler.payload(Slices.create(buffer));
+        }
+        Assert.assertEquals(Arrays.asList("3:7:9", "2:0:2"), gaps);
+        Assert.assertEquals(2, handler.getSequenceGaps());
+    }
+
+    @Test
+    public void testSequenceGapLedger() throws IOException {
+        File output = folder.newFolder();
+        MissionDataWriter writer = new MissionDataWriter(output, "VC00", new Properties());
+        byte[] data = new byte[100];
+        writer.startFile("file.dat");
+        writer.fileData(Slices.create(ByteBuffer.wrap(data)), APID.forValue(2), data.length, 0);
+        writer.sequenceGap(APID.forValue(2), 5, 7);
+        writer.fileData(Slices.create(ByteBuffer.wrap(data)), APID.forValue(2), data.length, 200);
+        writer.endFile(300, 0);
+        writer.close();
+        File[] ledgers = output.listFiles((dir, name) -> name.endsWith(".gaps"));
+        Assert.assertEquals(1, ledgers.length);
+        ByteBuffer ledger = ByteBuffer.wrap(Files.readAllBytes(ledgers[0].toPath()));
+        Assert.assertEquals(14, ledger.remaining());
+        Assert.assertEquals(2, ledger.getShort());
+        Assert.assertEquals(5, ledger.getShort());
+        Assert.assertEquals(7, ledger.getShort());
+        Assert.assertEquals(100, ledger.getLong());
+    }
+
+}
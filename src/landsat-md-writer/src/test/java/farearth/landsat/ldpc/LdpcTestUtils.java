@@ -41,6 +41,37 @@ public class LdpcTestUtils {
         }
     }
 
+    /**
+     * Turns an encoded frame into one soft symbol per bit, a 1 bit is
+     * -amplitude and a 0 bit +amplitude, plus gaussian noise with the given
+     * standard deviation relative to the amplitude.
+     *
+     * @param encoded
+     * @param random
+     * @param amplitude
+     * @param noise
+     * @return
+     */
+    public static byte[] toSoftSymbols(byte[] encoded, Random random, int amplitude, double noise) {
+        byte[] soft = new byte[encoded.length * 8];
+        int limit = 2 * amplitude - 1;
+        for (int b = 0; b < soft.length; b++) {
+            double value = (BitUtils.getBit(encoded, b) != 0 ? -amplitude : amplitude) + random.nextGaussian() * noise * amplitude;
+            soft[b] = (byte) Math.max(-limit, Math.min(limit, Math.round(value)));
+        }
+        return soft;
+    }
+
+    public static byte[] toHardBits(byte[] soft) {
+        byte[] hard = new byte[soft.length / 8];
+        for (int b = 0; b < soft.length; b++) {
+            if (soft[b] < 0) {
+                BitUtils.setBit(hard, b);
+            }
+        }
+        return hard;
+    }
+
     public static byte[][] encode(Landsat8LdpcEncoder encoder, byte[][] frames, boolean log) {
         byte[][] encoded = new byte[frames.length][];
         AtomicInteger num = new AtomicInteger();
@@ -4,13 +4,25 @@
  */
 package farearth.landsat.ldpc;
 
+import static farearth.landsat.ldpc.Landsat8LdpcConstants.CIRCULANT_SIZE;
+import farearth.landsat.ldpc.Landsat8LdpcConstants.Parity;
 import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderAccurate;
 import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderFast;
+import farearth.landsat.ldpc.decode.Landsat8LdpcMinSumDecoder;
 import farearth.landsat.ldpc.decode.Landsat8LdpcParityGraph;
 import farearth.landsat.ldpc.decode.Landsat8LdpcParityMatrix;
+import farearth.landsat.ldpc.decode.LdpcBitSlicedChecks;
+import farearth.landsat.ldpc.decode.LdpcDecodeBuffer;
 import farearth.landsat.ldpc.decode.LdpcDecoder;
+import farearth.landsat.ldpc.decode.LdpcPackedParityChecks;
 import farearth.landsat.ldpc.encode.Landsat8LdpcEncoder;
+import farearth.landsat.util.BitUtils;
+import farearth.landsat.util.SequenceRandomizer;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -41,6 +53,255 @@ public class TestDecoder {
         testDecoder(accurateDecoder, outerLoops, innerLoops, outerSteps);
     }
 
+    @Test
+    public void testDecodeIntoReusedBuffer() throws LdpcException {
+        int count = 30;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        // mix clean and corrupted frames so the decoder state is reused after both
+        for (int i = 0; i < count; i++) {
+            LdpcTestUtils.flipBits(new byte[][]{encoded[i]}, (i % 3) * 10);
+        }
+        LdpcDecodeBuffer buffer = fastDecoder.createDecodeBuffer();
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(fastDecoder.decode(encoded[i], 0, buffer));
+            Assert.assertArrayEquals(frames[i], buffer.getDecodedBytes());
+            Assert.assertTrue(buffer.getErrorBitCount() <= (i % 3) * 10);
+        }
+    }
+
+    @Test
+    public void testBatchDecode() throws LdpcException {
+        int count = LdpcBitSlicedChecks.BATCH_SIZE;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        long expectedFailing = 0;
+        for (int i = 0; i < count; i += 5) {
+            BitUtils.flipBit(encoded[i], i * 127);
+            BitUtils.flipBit(encoded[i], 8000 - i);
+            expectedFailing |= Long.MIN_VALUE >>> i;
+        }
+
+        LdpcBitSlicedChecks checks = new LdpcBitSlicedChecks(graph, frameSizes.getVirtualBitCount(),
+                new LdpcPackedParityChecks(graph, frameSizes.getVirtualBitCount(), frameSizes.getEncodedByteCount()));
+        long failing = checks.getFailingCodewords(encoded, count, checks.createPackedScratch(), checks.createSlicedScratch());
+        Assert.assertEquals(Long.toBinaryString(expectedFailing), Long.toBinaryString(failing));
+        // only the first codewords take part in a partial batch
+        failing = checks.getFailingCodewords(encoded, 7, checks.createPackedScratch(), checks.createSlicedScratch());
+        Assert.assertEquals(Long.toBinaryString(expectedFailing & 0xFE00000000000000L), Long.toBinaryString(failing));
+
+        LdpcDecodeBuffer[] buffers = new LdpcDecodeBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = fastDecoder.createDecodeBuffer();
+        }
+        fastDecoder.decode(encoded, count, buffers);
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(buffers[i].isSuccess());
+            Assert.assertArrayEquals(frames[i], buffers[i].getDecodedBytes());
+        }
+    }
+
+    @Test
+    public void testBatchDecodeFailingLateRows() throws LdpcException {
+        // errors that only fail checks past the half of the rows that the single codeword path looks at
+        int checkedRows = graph.getRows() / 2 + 1;
+        int[] errorBits = getErrorsPassingRows(checkedRows);
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(1, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        for (int bit : errorBits) {
+            BitUtils.flipBit(encoded[0], bit);
+        }
+        LdpcPackedParityChecks checks = new LdpcPackedParityChecks(graph, frameSizes.getVirtualBitCount(), frameSizes.getEncodedByteCount());
+        long[] packed = new long[checks.getWordCount()];
+        checks.pack(encoded[0], 0, packed);
+        Assert.assertTrue(checks.isCodeword(packed, checkedRows));
+        Assert.assertFalse(checks.isCodeword(packed, graph.getRows()));
+
+        LdpcDecodeBuffer[] buffers = {fastDecoder.createDecodeBuffer()};
+        fastDecoder.decode(encoded, 1, buffers);
+        // the errors are beyond the budget, they must not come out as a clean codeword
+        Assert.assertFalse(buffers[0].isSuccess() && !Arrays.equals(frames[0], buffers[0].getDecodedBytes()));
+    }
+
+    /**
+     * Finds info bits that flip an even number of bits in each of the first
+     * rows, by eliminating one more column than there are rows.
+     */
+    private int[] getErrorsPassingRows(int rows) {
+        int columns = rows + 1;
+        int rowWords = (rows + 63) / 64;
+        int columnWords = (columns + 63) / 64;
+        long[][] vectors = new long[columns][rowWords];
+        long[][] combinations = new long[columns][columnWords];
+        int[] pivots = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            for (int i = 0; i < graph.getColumnWeight(); i++) {
+                int row = graph.getRow(c + frameSizes.getVirtualBitCount(), i);
+                if (row < rows) {
+                    vectors[c][row / 64] ^= Long.MIN_VALUE >>> (row % 64);
+                }
+            }
+            combinations[c][c / 64] |= Long.MIN_VALUE >>> (c % 64);
+            for (int p = 0; p < c; p++) {
+                int pivot = pivots[p];
+                if (pivot >= 0 && (vectors[c][pivot / 64] << (pivot % 64)) < 0) {
+                    for (int w = 0; w < rowWords; w++) {
+                        vectors[c][w] ^= vectors[p][w];
+                    }
+                    for (int w = 0; w < columnWords; w++) {
+                        combinations[c][w] ^= combinations[p][w];
+                    }
+                }
+            }
+            pivots[c] = -1;
+            for (int w = 0; w < rowWords && pivots[c] < 0; w++) {
+                if (vectors[c][w] != 0) {
+                    pivots[c] = w * 64 + Long.numberOfLeadingZeros(vectors[c][w]);
+                }
+            }
+            if (pivots[c] < 0) {
+                long[] combination = combinations[c];
+                return IntStream.range(0, columns).filter(b -> (combination[b / 64] << (b % 64)) < 0).toArray();
+            }
+        }
+        throw new IllegalStateException("More independent columns than rows");
+    }
+
+    @Test
+    public void testDerandomizeWhilePacking() throws LdpcException {
+        int encodedByteCount = frameSizes.getEncodedByteCount();
+        long[] maskWords = SequenceRandomizer.createCcsdsMaskWords(encodedByteCount);
+        byte[] mask = new byte[encodedByteCount];
+        SequenceRandomizer.encodeCcsdsInplace(mask, 0, encodedByteCount);
+        long[] packed = new long[maskWords.length];
+        new LdpcPackedParityChecks(graph, frameSizes.getVirtualBitCount(), encodedByteCount).pack(mask, 0, packed);
+        Assert.assertArrayEquals(packed, maskWords);
+        byte[] unpacked = new byte[encodedByteCount];
+        LdpcPackedParityChecks.unpack(packed, unpacked, encodedByteCount);
+        Assert.assertArrayEquals(mask, unpacked);
+
+        int count = 12;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] randomized = LdpcTestUtils.encode(encoder, frames, false);
+        for (int i = 0; i < count; i++) {
+            LdpcTestUtils.flipBits(new byte[][]{randomized[i]}, (i % 3) * 10);
+            SequenceRandomizer.encodeCcsdsInplace(randomized[i], 0, encodedByteCount);
+        }
+        byte[][] received = new byte[count][];
+        LdpcDecodeBuffer[] buffers = new LdpcDecodeBuffer[count];
+        for (int i = 0; i < count; i++) {
+            received[i] = randomized[i].clone();
+            buffers[i] = fastDecoder.createDecodeBuffer();
+        }
+        fastDecoder.decode(randomized, count, buffers, fastDecoder.getMaxErrorsToFix(), maskWords);
+        LdpcDecodeBuffer buffer = fastDecoder.createDecodeBuffer();
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(received[i], randomized[i]);
+            Assert.assertTrue(buffers[i].isSuccess());
+            Assert.assertArrayEquals(frames[i], buffers[i].getDecodedBytes());
+            Assert.assertTrue(fastDecoder.decode(randomized[i], 0, buffer, fastDecoder.getMaxErrorsToFix(), maskWords));
+            Assert.assertArrayEquals(frames[i], buffer.getDecodedBytes());
+        }
+    }
+
+    @Test
+    public void testCirculantParityMatrix() {
+        // the byte per bit matrix, built the way it used to be for every decoder
+        byte[][] expected = new byte[Parity.MATRIX_HEIGHT][Parity.MATRIX_WIDTH];
+        LdpcCirculantFactory circulantFactory = new LdpcCirculantFactory();
+        for (int r = 0; r < Parity.CIRCULANT_ROWS; r++) {
+            for (int c = 0; c < Parity.CIRCULANT_COLUMNS; c++) {
+                circulantFactory.populateSparse(expected, r * CIRCULANT_SIZE, c * CIRCULANT_SIZE, CIRCULANT_SIZE, Parity.CIRCULANTS[r][c]);
+            }
+        }
+        LdpcCirculantMatrix circulants = matrix.getCirculants().get();
+        for (int r = 0; r < expected.length; r++) {
+            int[] columns = circulants.getRowColumns(r);
+            Assert.assertEquals(Parity.ROW_WEIGHT, columns.length);
+            Assert.assertArrayEquals(columns, graph.getRowColumnMatrix()[r]);
+            long[] packed = circulants.getPackedRow(r);
+            for (int c = 0; c < expected[r].length; c++) {
+                Assert.assertEquals(expected[r][c] != 0, Arrays.binarySearch(columns, c) >= 0);
+                Assert.assertEquals(expected[r][c] != 0, (packed[c >>> 6] << (c & 63)) < 0);
+            }
+        }
+        for (int c = 0; c < Parity.MATRIX_WIDTH; c += 7) {
+            int[] rows = circulants.getColumnRows(c);
+            Assert.assertEquals(Parity.COL_WEIGHT, rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                Assert.assertEquals(rows[i], graph.getRow(c, i));
+                Assert.assertTrue(circulants.isSet(rows[i], c));
+            }
+        }
+        Assert.assertArrayEquals(expected, matrix.getRawMatrix());
+    }
+
+    @Test
+    public void testSoftDecoder() throws LdpcException {
+        int count = 20;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        Landsat8LdpcMinSumDecoder softDecoder = new Landsat8LdpcMinSumDecoder();
+        LdpcDecodeBuffer buffer = softDecoder.createDecodeBuffer();
+        Random random = new Random(1234);
+        int hardFailures = 0;
+        for (int i = 0; i < count; i++) {
+            // 4 bit soft symbols with enough noise for a percent or so of wrong hard decisions
+            byte[] soft = LdpcTestUtils.toSoftSymbols(encoded[i], random, 4, 0.45);
+            int wrongSigns = 0;
+            for (int b = 0; b < frameSizes.getEncodedBitCount(); b++) {
+                if ((soft[b] < 0) != (BitUtils.getBit(encoded[i], b) != 0)) {
+                    wrongSigns++;
+                }
+            }
+            Assert.assertTrue(softDecoder.decode(soft, 0, buffer));
+            Assert.assertArrayEquals(frames[i], buffer.getDecodedBytes());
+            Assert.assertEquals(wrongSigns, buffer.getErrorBitCount());
+            if (!fastDecoder.decode(LdpcTestUtils.toHardBits(soft), 0, fastDecoder.createDecodeBuffer())) {
+                hardFailures++;
+            }
+        }
+        LOG.info("Soft decoded {} frames the hard decoder failed on", hardFailures);
+        Assert.assertTrue(hardFailures > count / 2);
+
+        // clean frames pass without iterating
+        byte[] soft = LdpcTestUtils.toSoftSymbols(encoded[0], random, 4, 0);
+        Assert.assertTrue(softDecoder.decode(soft, 0, buffer));
+        Assert.assertArrayEquals(frames[0], buffer.getDecodedBytes());
+        Assert.assertEquals(0, buffer.getDecodingLoops());
+    }
+
+    @Test
+    public void testFastDecoderRecovery() throws LdpcException {
+        // frames recovered out of 100 by the original fast decoder, which
+        // rescanned the failing rows for every flip
+        int[][] baseline = {{40, 94}, {45, 81}, {50, 53}};
+        int frameCount = 100;
+        for (int[] level : baseline) {
+            int errorBits = level[0];
+            Random random = new Random(errorBits);
+            int recovered = 0;
+            for (int f = 0; f < frameCount; f++) {
+                byte[] frame = new byte[frameSizes.getDecodedByteCount()];
+                random.nextBytes(frame);
+                byte[] encoded = encoder.encode(frame);
+                Set<Integer> errors = new HashSet<>();
+                while (errors.size() < errorBits) {
+                    errors.add(random.nextInt(frameSizes.getEncodedBitCount()));
+                }
+                for (int bitIndex : errors) {
+                    BitUtils.flipBit(encoded, bitIndex);
+                }
+                byte[] decoded = fastDecoder.decode(encoded).getDecodedBytes().orElse(null);
+                if (decoded != null && Arrays.equals(frame, Arrays.copyOf(decoded, frame.length))) {
+                    recovered++;
+                }
+            }
+            LOG.info("Fast decoder recovered {}/{} frames with {} errors, originally {}", recovered, frameCount, errorBits, level[1]);
+            Assert.assertTrue(recovered >= level[1]);
+        }
+    }
+
     private void testDecoder(LdpcDecoder decoder, int outerLoops, int innerLoops, int outerSteps) throws LdpcException {
         LOG.info("Frames per measurement: {}", innerLoops);
         for (int i = 0; i <= outerLoops; i += outerSteps) {
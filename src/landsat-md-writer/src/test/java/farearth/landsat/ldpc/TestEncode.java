@@ -4,7 +4,14 @@
  */
 package farearth.landsat.ldpc;
 
+import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderFast;
+import farearth.landsat.ldpc.decode.Landsat8LdpcParityGraph;
+import farearth.landsat.ldpc.encode.Landsat8LdpcCirculantEncoder;
 import farearth.landsat.ldpc.encode.Landsat8LdpcEncoder;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -28,4 +35,37 @@ public class TestEncode {
             Assert.assertArrayEquals(encoded2, encoded1);
         }
     }
+
+    @Test
+    public void testCirculantEncoder() throws LdpcException {
+        Landsat8LdpcEncoder encoder = new Landsat8LdpcEncoder();
+        Landsat8LdpcCirculantEncoder circulantEncoder = new Landsat8LdpcCirculantEncoder();
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(50, encoder.getFrameSizes().getDecodedByteCount());
+        frames[0][0] = (byte) 0x80; // the first and last info bits
+        frames[0][frames[0].length - 1] = 1;
+        byte[][] encoded = circulantEncoder.encode(frames, 3);
+        byte[] reused = new byte[encoder.getFrameSizes().getEncodedByteCount() + 5];
+        Arrays.fill(reused, (byte) 0xFF);
+        for (int i = 0; i < frames.length; i++) {
+            byte[] expected = encoder.encode(frames[i]);
+            Assert.assertArrayEquals(expected, circulantEncoder.encode(frames[i]));
+            Assert.assertArrayEquals(expected, encoded[i]);
+            circulantEncoder.encode(frames[i], 0, reused, 5);
+            Assert.assertArrayEquals(expected, Arrays.copyOfRange(reused, 5, reused.length));
+        }
+    }
+
+    @Test
+    public void testSharedCodeTables() throws LdpcException {
+        // decoders built at the same time on different threads all get the one graph
+        Set<Landsat8LdpcParityGraph> graphs = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 8).parallel().forEach(i -> graphs.add(new Landsat8LdpcDecoderFast().getGraph()));
+        Assert.assertEquals(1, graphs.size());
+        Assert.assertSame(Landsat8LdpcCodes.getParityGraph(), graphs.iterator().next());
+
+        Landsat8LdpcEncoder encoder = new Landsat8LdpcEncoder();
+        byte[] decoded = new byte[encoder.getFrameSizes().getDecodedByteCount()];
+        decoded[7] = 0x5A;
+        Assert.assertArrayEquals(encoder.encodeSlow(decoded), new Landsat8LdpcEncoder().encode(decoded));
+    }
 }
@@ -4,12 +4,21 @@
  */
 package farearth.landsat.ldpc;
 
+import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderAccurate;
 import farearth.landsat.ldpc.decode.Landsat8LdpcDecoderFast;
+import farearth.landsat.ldpc.decode.LdpcDecodeBudget;
+import farearth.landsat.ldpc.decode.LdpcDecodeBudget.Level;
+import farearth.landsat.ldpc.decode.LdpcDecodeBuffer;
 import farearth.landsat.ldpc.decode.LdpcDecodeResult;
+import farearth.landsat.ldpc.decode.PipelinedLdpcDecoder;
 import farearth.landsat.ldpc.decode.ThreadedLdpcDecoder;
 import farearth.landsat.ldpc.encode.Landsat8LdpcEncoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -45,4 +54,130 @@ public class TestThreadedDecoder {
             }
         }
     }
+
+    @Test
+    public void testPipelinedDecoderKeepsOrder() throws IOException {
+        int count = 40;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        // corrupt every third frame so that some frames take longer to decode
+        for (int i = 0; i < count; i += 3) {
+            LdpcTestUtils.flipBits(new byte[][]{encoded[i]}, 30);
+        }
+
+        List<byte[]> decoded = new ArrayList<>();
+        PipelinedLdpcDecoder.ResultHandler handler = result -> decoded.add(result.getDecodedBytes().clone());
+        try (PipelinedLdpcDecoder pipeline = new PipelinedLdpcDecoder(fastDecoder, false, 3, 4, 3)) {
+            for (byte[] frame : encoded) {
+                pipeline.submit(ByteBuffer.wrap(frame), handler);
+                Assert.assertTrue(pipeline.getMaxReorderDepth() <= pipeline.getMaxInFlight());
+            }
+            pipeline.flush(handler);
+            Assert.assertEquals(count, pipeline.getFrameCount());
+        }
+
+        Assert.assertEquals(count, decoded.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(frames[i], decoded.get(i));
+        }
+    }
+
+    @Test
+    public void testPipelinedDecoderShedsLoad() throws IOException {
+        int count = 40;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        int corrupted = (count + 2) / 3;
+        for (int i = 0; i < count; i += 3) {
+            LdpcTestUtils.flipBits(new byte[][]{encoded[i]}, 30);
+        }
+
+        // any backlog sheds, without retries the corrupted frames are abandoned
+        List<byte[]> decoded = decodeWithBudget(encoded, new LdpcDecodeBudget(1, 1, 0, 0), pipeline -> {
+            Assert.assertEquals(count - corrupted, pipeline.getDecodedCount(Level.Shed));
+            Assert.assertEquals(0, pipeline.getDeferredCount(Level.Shed));
+        });
+        for (int i = 0; i < count; i++) {
+            if (i % 3 == 0) {
+                Assert.assertNull(decoded.get(i));
+            } else {
+                Assert.assertArrayEquals(frames[i], decoded.get(i));
+            }
+        }
+
+        // with retries every corrupted frame is deferred, whether it is recovered depends on timing
+        decoded = decodeWithBudget(encoded, new LdpcDecodeBudget(1, 1, 0, count), pipeline -> {
+            Assert.assertEquals(count - corrupted, pipeline.getDecodedCount(Level.Shed));
+            Assert.assertEquals(corrupted, pipeline.getDeferredCount(Level.Shed));
+            Assert.assertEquals(corrupted, pipeline.getRetriedCount(Level.Shed) + pipeline.getAbandonedCount(Level.Shed));
+            Assert.assertEquals(0, pipeline.getDecodedCount(Level.Normal));
+        });
+        for (int i = 0; i < count; i++) {
+            if (i % 3 != 0 || decoded.get(i) != null) {
+                Assert.assertArrayEquals(frames[i], decoded.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedDecoderFallback() throws IOException {
+        int count = 24;
+        byte[][] frames = LdpcTestUtils.generatePseudoRandomInfoFrames(count, frameSizes.getDecodedByteCount());
+        byte[][] encoded = LdpcTestUtils.encode(encoder, frames, false);
+        // more errors than the fast decoder usually corrects in every other frame
+        for (int i = 0; i < count; i += 2) {
+            LdpcTestUtils.flipBits(new byte[][]{encoded[i]}, 55);
+        }
+        Landsat8LdpcDecoderAccurate accurateDecoder = new Landsat8LdpcDecoderAccurate(true, 200);
+        LdpcDecodeBuffer buffer = accurateDecoder.createDecodeBuffer();
+        int fastFailures = 0;
+        int recoverable = 0;
+        for (byte[] frame : encoded) {
+            if (fastDecoder.decode(frame).getDecodedBytes().isPresent()) {
+                continue;
+            }
+            fastFailures++;
+            if (accurateDecoder.decode(frame, 0, buffer)) {
+                recoverable++;
+            }
+        }
+        Assert.assertTrue(recoverable > 0);
+
+        List<byte[]> decoded = new ArrayList<>();
+        PipelinedLdpcDecoder.ResultHandler handler = result -> decoded.add(result.isSuccess() ? result.getDecodedBytes().clone() : null);
+        try (PipelinedLdpcDecoder pipeline = new PipelinedLdpcDecoder(fastDecoder, accurateDecoder, false, 2, 4, 3, LdpcDecodeBudget.fullEffort(count))) {
+            for (byte[] frame : encoded) {
+                pipeline.submit(ByteBuffer.wrap(frame), handler);
+            }
+            pipeline.flush(handler);
+            Assert.assertEquals(count - fastFailures, pipeline.getDecodedCount(Level.Normal));
+            Assert.assertEquals(fastFailures, pipeline.getDeferredCount(Level.Normal));
+            // the full effort budget waits for every retry
+            Assert.assertEquals(recoverable, pipeline.getRetriedCount(Level.Normal));
+            Assert.assertEquals(fastFailures - recoverable, pipeline.getAbandonedCount(Level.Normal));
+        }
+        Assert.assertEquals(count, decoded.size());
+        int recovered = 0;
+        for (int i = 0; i < count; i++) {
+            if (decoded.get(i) != null) {
+                Assert.assertArrayEquals(frames[i], decoded.get(i));
+                recovered++;
+            }
+        }
+        Assert.assertEquals(count - fastFailures + recoverable, recovered);
+    }
+
+    private List<byte[]> decodeWithBudget(byte[][] encoded, LdpcDecodeBudget budget, Consumer<PipelinedLdpcDecoder> check) throws IOException {
+        List<byte[]> decoded = new ArrayList<>();
+        PipelinedLdpcDecoder.ResultHandler handler = result -> decoded.add(result.isSuccess() ? result.getDecodedBytes().clone() : null);
+        try (PipelinedLdpcDecoder pipeline = new PipelinedLdpcDecoder(fastDecoder, false, 3, 4, 3, budget)) {
+            for (byte[] frame : encoded) {
+                pipeline.submit(ByteBuffer.wrap(frame), handler);
+            }
+            pipeline.flush(handler);
+            check.accept(pipeline);
+        }
+        Assert.assertEquals(encoded.length, decoded.size());
+        return decoded;
+    }
 }
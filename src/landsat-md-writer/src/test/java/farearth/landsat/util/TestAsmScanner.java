@@ -0,0 +1,114 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author anton
+ */
+public class TestAsmScanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestAsmScanner.class);
+    private static final int CADU_ASM = 0x352EF853;
+    private static final int LDPC_ASM = 0x1ACFFC1D;
+
+    @Test
+    public void testMatchesByteScan() {
+        Random random = new Random(42);
+        for (int asm : new int[]{CADU_ASM, LDPC_ASM}) {
+            for (int i = 0; i < 200; i++) {
+                ByteBuffer buffer = createRandom(random, 1 + random.nextInt(300));
+                for (int j = random.nextInt(4); j > 0; j--) {
+                    int position = random.nextInt(buffer.limit());
+                    if (position + 4 <= buffer.limit()) {
+                        buffer.putInt(position, asm);
+                    }
+                }
+                int from = random.nextInt(buffer.limit());
+                int to = from + random.nextInt(buffer.limit() - from + 1);
+                for (int index = from; index >= 0; index = next(buffer, asm, index, to)) {
+                    Assert.assertEquals(index(buffer, asm, index, to), AsmScanner.indexOf(buffer, asm, index, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSliceScan() {
+        ByteBuffer buffer = createRandom(new Random(7), 4096);
+        buffer.putInt(1000, CADU_ASM);
+        buffer.putInt(3001, CADU_ASM);
+        Slice slice = Slices.create(buffer);
+        Assert.assertTrue(slice.scanTo(CADU_ASM));
+        Assert.assertEquals(1004, slice.position());
+        Assert.assertTrue(slice.scanTo(CADU_ASM));
+        Assert.assertEquals(3005, slice.position());
+        Assert.assertFalse(slice.scanTo(CADU_ASM));
+        Assert.assertEquals(slice.limit(), slice.position());
+        // the byte at a time scan of chained slices must agree
+        Slice chain = Slices.chain(Slices.create(buffer, 0, 1002), Slices.create(buffer, 1002, 4096));
+        Assert.assertTrue(chain.scanTo(CADU_ASM));
+        Assert.assertEquals(1004, chain.position());
+    }
+
+    @Test
+    public void testScanRate() {
+        ByteBuffer buffer = createRandom(new Random(1), 16 * 1024 * 1024);
+        int iterations = 5;
+        double megabytes = iterations * buffer.limit() / (1024.0 * 1024.0);
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < iterations; i++) {
+            found += count(buffer, CADU_ASM, false);
+        }
+        double byteRate = megabytes / ((System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        int foundWords = 0;
+        for (int i = 0; i < iterations; i++) {
+            foundWords += count(buffer, CADU_ASM, true);
+        }
+        double wordRate = megabytes / ((System.nanoTime() - start) / 1e9);
+        Assert.assertEquals(found, foundWords);
+        LOG.info(String.format("ASM scan on random data: byte at a time %.0f MB/s, word at a time %.0f MB/s", byteRate, wordRate));
+    }
+
+    private static int count(ByteBuffer buffer, int asm, boolean words) {
+        int count = 0;
+        int index = words ? AsmScanner.indexOf(buffer, asm, 0, buffer.limit()) : index(buffer, asm, 0, buffer.limit());
+        while (index >= 0) {
+            count++;
+            index = words ? AsmScanner.indexOf(buffer, asm, index + 1, buffer.limit()) : index(buffer, asm, index + 1, buffer.limit());
+        }
+        return count;
+    }
+
+    private static int next(ByteBuffer buffer, int asm, int from, int to) {
+        int index = index(buffer, asm, from, to);
+        return index < 0 ? -1 : index + 1;
+    }
+
+    private static int index(ByteBuffer buffer, int asm, int from, int to) {
+        for (int i = from; i < to && i + 4 <= buffer.limit(); i++) {
+            if (buffer.getInt(i) == asm) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer createRandom(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright Pinkmatter Solutions
+ * www.pinkmatter.com
+ */
+package farearth.landsat.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Chris
+ */
+public class TestBufferPool {
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(16, 4);
+        PooledBuffer first = pool.acquire();
+        Assert.assertEquals(1, pool.getOutstanding());
+        first.release();
+        Assert.assertEquals(0, pool.getOutstanding());
+        PooledBuffer second = pool.acquire();
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(1, pool.getMisses());
+        second.release();
+    }
+
+    @Test
+    public void testDerivedSlicesShareReference() {
+        BufferPool pool = new BufferPool(16, 4);
+        Slice slice = Slices.create(pool.acquire());
+        Slice extract = slice.extract(4, 8).retain();
+        Slice chained = Slices.chain(slice.duplicate(), slice.extract(2)).retain();
+        slice.release();
+        Assert.assertEquals(1, pool.getOutstanding());
+        extract.release();
+        Assert.assertEquals(1, pool.getOutstanding());
+        chained.release();
+        Assert.assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTwice() {
+        BufferPool pool = new BufferPool(16, 4);
+        PooledBuffer buffer = pool.acquire();
+        buffer.release();
+        buffer.release();
+    }
+
+}